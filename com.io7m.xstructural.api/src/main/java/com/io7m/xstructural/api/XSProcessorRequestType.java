@@ -21,6 +21,7 @@ import org.immutables.value.Value;
 
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * A document processor request.
@@ -82,6 +83,19 @@ public interface XSProcessorRequestType
     return this.outputDirectory().resolve("trace.xml");
   }
 
+  /**
+   * @return The kind of XSLT tracing that will be performed
+   *
+   * @see #traceFile()
+   * @since 2.2.0
+   */
+
+  @Value.Default
+  default TraceMode traceMode()
+  {
+    return TraceMode.NONE;
+  }
+
   /**
    * @return The file to which XSLT messages will be written
    */
@@ -112,6 +126,107 @@ public interface XSProcessorRequestType
 
   Optional<Path> typeDescriptionFile();
 
+  /**
+   * @return The maximum number of threads used to validate XHTML output files
+   *
+   * @since 2.2.0
+   */
+
+  @Value.Default
+  default int validationThreads()
+  {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * @return The number of threads used to compress entries when creating
+   * EPUB files; the resulting EPUB file is identical for any number of threads
+   *
+   * @since 2.2.0
+   */
+
+  @Value.Default
+  default int epubCompressionThreads()
+  {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * When creating EPUB files, the pages produced by the transform are held
+   * in memory and written directly into the EPUB file. If this attribute is
+   * {@code true}, the pages, and the directory tree from which the EPUB file
+   * would be assembled, are also written to the output directory.
+   *
+   * @return {@code true} if intermediate EPUB files should be written
+   *
+   * @since 2.2.0
+   */
+
+  @Value.Default
+  default boolean epubWriteIntermediateFiles()
+  {
+    return false;
+  }
+
+  /**
+   * If this attribute is {@code true} and an EPUB file already exists in the
+   * output directory, entries that have not changed since the existing file
+   * was produced are copied from it in compressed form rather than being
+   * compressed again. The digests of the entries are recorded in a file
+   * alongside the EPUB file, named after it with a {@code .sha256} suffix.
+   *
+   * @return {@code true} if EPUB files should be rebuilt incrementally
+   *
+   * @since 2.2.0
+   */
+
+  @Value.Default
+  default boolean epubIncremental()
+  {
+    return false;
+  }
+
+  /**
+   * @return The kind of check performed on EPUB files once they are created
+   *
+   * @since 2.2.0
+   */
+
+  @Value.Default
+  default EPUBCheck epubCheck()
+  {
+    return EPUBCheck.EPUBCHECK;
+  }
+
+  /**
+   * The media types of EPUB resources that are stored in the EPUB file
+   * without compression. Resources in these formats are typically already
+   * compressed, and so gain almost nothing from being compressed again.
+   * Media types are determined from resource file names.
+   *
+   * @return The media types of resources that will not be compressed
+   *
+   * @since 2.2.0
+   */
+
+  @Value.Default
+  default Set<String> epubStoredMediaTypes()
+  {
+    return Set.of(
+      "audio/mp4",
+      "audio/mpeg",
+      "audio/ogg",
+      "font/woff",
+      "font/woff2",
+      "image/gif",
+      "image/jpeg",
+      "image/png",
+      "image/webp",
+      "video/mp4",
+      "video/webm"
+    );
+  }
+
   /**
    * The stylesheet that will be used during processing.
    */
@@ -154,6 +269,61 @@ public interface XSProcessorRequestType
     MULTIPLE_FILE_INDEX_ONLY
   }
 
+  /**
+   * The kind of XSLT tracing performed during transforms.
+   *
+   * @since 2.2.0
+   */
+
+  enum TraceMode
+  {
+    /**
+     * No tracing is performed, and no trace file is written.
+     */
+
+    NONE,
+
+    /**
+     * The number of times each template is entered is recorded, and a
+     * summary is written to the trace file when the transform completes.
+     */
+
+    SUMMARY,
+
+    /**
+     * Every XSLT instruction executed is written to the trace file. This
+     * is extremely slow for large documents, and can produce very large
+     * trace files.
+     */
+
+    FULL
+  }
+
+  /**
+   * The kind of check performed on EPUB files once they are created.
+   *
+   * @since 2.2.0
+   */
+
+  enum EPUBCheck
+  {
+    /**
+     * The EPUB file is checked with epubcheck. This is a complete check of
+     * conformance to the EPUB specification, but is comparatively slow.
+     */
+
+    EPUBCHECK,
+
+    /**
+     * The EPUB file is checked with a fast built-in check of the structure of
+     * the archive: the {@code mimetype} entry, the container file, the
+     * consistency of the manifest and spine with the archive, and the links
+     * between files. This is suitable for development builds.
+     */
+
+    STRUCTURAL
+  }
+
   /**
    * A document processor task.
    */
@@ -200,6 +370,22 @@ public interface XSProcessorRequestType
     this.brandingFile().ifPresent(XSProcessorRequestType::checkAbsolute);
     this.typeDescriptionFile().ifPresent(XSProcessorRequestType::checkAbsolute);
     checkAbsolute(this.sourceFile());
+
+    if (this.validationThreads() < 1) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Validation thread count %d must be at least 1",
+          Integer.valueOf(this.validationThreads()))
+      );
+    }
+
+    if (this.epubCompressionThreads() < 1) {
+      throw new IllegalArgumentException(
+        String.format(
+          "EPUB compression thread count %d must be at least 1",
+          Integer.valueOf(this.epubCompressionThreads()))
+      );
+    }
   }
 
   private static void checkAbsolute(
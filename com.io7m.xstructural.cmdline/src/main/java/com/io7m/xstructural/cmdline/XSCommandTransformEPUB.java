@@ -22,9 +22,12 @@ import com.io7m.xstructural.api.XSProcessorRequest;
 import com.io7m.xstructural.cmdline.internal.XSServices;
 
 import java.nio.file.Path;
+import java.util.List;
 
+import static com.io7m.xstructural.api.XSProcessorRequestType.EPUBCheck;
 import static com.io7m.xstructural.api.XSProcessorRequestType.Stylesheet;
 import static com.io7m.xstructural.api.XSProcessorRequestType.Task;
+import static com.io7m.xstructural.api.XSProcessorRequestType.TraceMode;
 
 @Parameters(commandDescription = "Transform a structural document to an EPUB")
 final class XSCommandTransformEPUB extends XSCommandRoot
@@ -52,11 +55,19 @@ final class XSCommandTransformEPUB extends XSCommandRoot
 
   @Parameter(
     required = false,
-    description = "The output file for trace messages",
+    description = "The output file for trace messages (used if --traceMode is not NONE)",
     names = "--traceFile"
   )
   private Path traceFile;
 
+  @Parameter(
+    required = false,
+    description = "The kind of XSLT tracing to perform (NONE, SUMMARY, FULL). Defaults to NONE.",
+    names = "--traceMode",
+    converter = XSTraceModeConverter.class
+  )
+  private TraceMode traceMode;
+
   @Parameter(
     required = false,
     description = "The output file for XSLT messages",
@@ -71,6 +82,51 @@ final class XSCommandTransformEPUB extends XSCommandRoot
   )
   private String outputFileName;
 
+  @Parameter(
+    required = false,
+    description = "The maximum number of threads used to validate XHTML output files",
+    names = "--validationThreads"
+  )
+  private Integer validationThreads;
+
+  @Parameter(
+    required = false,
+    description = "The number of threads used to compress EPUB entries",
+    names = "--compressionThreads"
+  )
+  private Integer compressionThreads;
+
+  @Parameter(
+    required = false,
+    description = "Should the intermediate files used to assemble the EPUB file be written to the output directory?",
+    names = "--writeIntermediateFiles",
+    arity = 1
+  )
+  private boolean writeIntermediateFiles;
+
+  @Parameter(
+    required = false,
+    description = "The media type of resources that will be stored without compression (may be repeated; replaces the default set)",
+    names = "--storedMediaType"
+  )
+  private List<String> storedMediaTypes;
+
+  @Parameter(
+    required = false,
+    description = "Should unchanged entries be copied from an existing EPUB file rather than compressed again?",
+    names = "--incremental",
+    arity = 1
+  )
+  private boolean incremental;
+
+  @Parameter(
+    required = false,
+    description = "The kind of check performed on the EPUB file (EPUBCHECK, STRUCTURAL)",
+    names = "--check",
+    converter = XSEPUBCheckConverter.class
+  )
+  private EPUBCheck check = EPUBCheck.EPUBCHECK;
+
   XSCommandTransformEPUB()
   {
 
@@ -94,6 +150,9 @@ final class XSCommandTransformEPUB extends XSCommandRoot
     if (this.traceFile != null) {
       requestBuilder.setTraceFile(this.traceFile.toAbsolutePath());
     }
+    if (this.traceMode != null) {
+      requestBuilder.setTraceMode(this.traceMode);
+    }
     if (this.messagesFile != null) {
       requestBuilder.setMessageFile(this.messagesFile.toAbsolutePath());
     }
@@ -103,6 +162,19 @@ final class XSCommandTransformEPUB extends XSCommandRoot
     if (this.typesFile != null) {
       requestBuilder.setTypeDescriptionFile(this.typesFile);
     }
+    if (this.validationThreads != null) {
+      requestBuilder.setValidationThreads(this.validationThreads.intValue());
+    }
+    if (this.compressionThreads != null) {
+      requestBuilder.setEpubCompressionThreads(
+        this.compressionThreads.intValue());
+    }
+    requestBuilder.setEpubWriteIntermediateFiles(this.writeIntermediateFiles);
+    requestBuilder.setEpubIncremental(this.incremental);
+    requestBuilder.setEpubCheck(this.check);
+    if (this.storedMediaTypes != null) {
+      requestBuilder.setEpubStoredMediaTypes(this.storedMediaTypes);
+    }
 
     final var request = requestBuilder.build();
     final var processors = XSServices.findProcessors();
@@ -25,6 +25,7 @@ import java.nio.file.Path;
 
 import static com.io7m.xstructural.api.XSProcessorRequestType.Stylesheet;
 import static com.io7m.xstructural.api.XSProcessorRequestType.Task;
+import static com.io7m.xstructural.api.XSProcessorRequestType.TraceMode;
 
 @Parameters(commandDescription = "Transform a structural document to XHTML")
 final class XSCommandTransformXHTML extends XSCommandRoot
@@ -60,11 +61,19 @@ final class XSCommandTransformXHTML extends XSCommandRoot
 
   @Parameter(
     required = false,
-    description = "The output file for trace messages",
+    description = "The output file for trace messages (used if --traceMode is not NONE)",
     names = "--traceFile"
   )
   private Path traceFile;
 
+  @Parameter(
+    required = false,
+    description = "The kind of XSLT tracing to perform (NONE, SUMMARY, FULL). Defaults to NONE.",
+    names = "--traceMode",
+    converter = XSTraceModeConverter.class
+  )
+  private TraceMode traceMode;
+
   @Parameter(
     required = false,
     description = "The output file for XSLT messages",
@@ -87,6 +96,13 @@ final class XSCommandTransformXHTML extends XSCommandRoot
   )
   private boolean copyResources = true;
 
+  @Parameter(
+    required = false,
+    description = "The maximum number of threads used to validate XHTML output files",
+    names = "--validationThreads"
+  )
+  private Integer validationThreads;
+
   XSCommandTransformXHTML()
   {
 
@@ -110,6 +126,9 @@ final class XSCommandTransformXHTML extends XSCommandRoot
     if (this.traceFile != null) {
       requestBuilder.setTraceFile(this.traceFile.toAbsolutePath());
     }
+    if (this.traceMode != null) {
+      requestBuilder.setTraceMode(this.traceMode);
+    }
     if (this.messagesFile != null) {
       requestBuilder.setMessageFile(this.messagesFile.toAbsolutePath());
     }
@@ -119,6 +138,9 @@ final class XSCommandTransformXHTML extends XSCommandRoot
     if (this.typesFile != null) {
       requestBuilder.setTypeDescriptionFile(this.typesFile);
     }
+    if (this.validationThreads != null) {
+      requestBuilder.setValidationThreads(this.validationThreads.intValue());
+    }
 
     final var request = requestBuilder.build();
     final var processors = XSServices.findProcessors();
@@ -36,6 +36,13 @@ final class XSCommandValidateXHTML extends XSCommandRoot
   )
   private Path sourceDirectory;
 
+  @Parameter(
+    required = false,
+    description = "The maximum number of threads used to validate XHTML output files",
+    names = "--validationThreads"
+  )
+  private Integer validationThreads;
+
   XSCommandValidateXHTML()
   {
 
@@ -59,6 +66,10 @@ final class XSCommandValidateXHTML extends XSCommandRoot
       requestBuilder.setSourceFile(tempFile);
       requestBuilder.setTask(Task.VALIDATE_XHTML);
 
+      if (this.validationThreads != null) {
+        requestBuilder.setValidationThreads(this.validationThreads.intValue());
+      }
+
       final var request = requestBuilder.build();
       final var processors = XSServices.findProcessors();
       final var processor = processors.create(request);
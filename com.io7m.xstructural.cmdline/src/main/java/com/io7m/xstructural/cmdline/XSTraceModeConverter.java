@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.cmdline;
+
+import com.beust.jcommander.IStringConverter;
+
+import static com.io7m.xstructural.api.XSProcessorRequestType.TraceMode;
+
+/**
+ * A converter for {@link TraceMode} values.
+ */
+
+public final class XSTraceModeConverter implements IStringConverter<TraceMode>
+{
+  /**
+   * Construct a new converter.
+   */
+
+  public XSTraceModeConverter()
+  {
+
+  }
+
+  @Override
+  public TraceMode convert(final String value)
+  {
+    for (final TraceMode v : TraceMode.values()) {
+      if (value.equals(v.name())) {
+        return v;
+      }
+    }
+
+    throw new XSTraceModeUnrecognized(
+      String.format("Unrecognized trace mode: %s", value)
+    );
+  }
+}
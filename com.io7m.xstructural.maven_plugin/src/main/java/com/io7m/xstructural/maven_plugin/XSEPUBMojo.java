@@ -18,13 +18,15 @@ package com.io7m.xstructural.maven_plugin;
 
 import com.io7m.xstructural.api.XSProcessorException;
 import com.io7m.xstructural.api.XSProcessorRequest;
-import com.io7m.xstructural.vanilla.XSProcessors;
+import com.io7m.xstructural.api.XSProcessorRequestType.EPUBCheck;
+import com.io7m.xstructural.api.XSProcessorRequestType.TraceMode;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
 import java.nio.file.Paths;
+import java.util.List;
 
 import static com.io7m.xstructural.api.XSProcessorRequestType.Stylesheet.EPUB;
 import static com.io7m.xstructural.api.XSProcessorRequestType.Task.TRANSFORM_EPUB;
@@ -69,6 +71,50 @@ public final class XSEPUBMojo extends AbstractMojo
   )
   private String outputFileName;
 
+  @Parameter(
+    name = "traceFile",
+    required = false)
+  private String traceFile;
+
+  @Parameter(
+    name = "traceMode",
+    defaultValue = "NONE",
+    required = false)
+  private TraceMode traceMode;
+
+  @Parameter(
+    name = "validationThreads",
+    required = false)
+  private Integer validationThreads;
+
+  @Parameter(
+    name = "compressionThreads",
+    required = false)
+  private Integer compressionThreads;
+
+  @Parameter(
+    name = "writeIntermediateFiles",
+    defaultValue = "false",
+    required = false)
+  private boolean writeIntermediateFiles;
+
+  @Parameter(
+    name = "storedMediaTypes",
+    required = false)
+  private List<String> storedMediaTypes;
+
+  @Parameter(
+    name = "incremental",
+    defaultValue = "false",
+    required = false)
+  private boolean incremental;
+
+  @Parameter(
+    name = "check",
+    defaultValue = "EPUBCHECK",
+    required = false)
+  private EPUBCheck check;
+
   @Parameter(
     required = false,
     name = "skip",
@@ -112,14 +158,34 @@ public final class XSEPUBMojo extends AbstractMojo
       if (this.outputFileName != null) {
         requestBuilder.setOutputName(this.outputFileName);
       }
+      if (this.traceFile != null) {
+        requestBuilder.setTraceFile(
+          Paths.get(this.traceFile).toAbsolutePath());
+      }
+      if (this.traceMode != null) {
+        requestBuilder.setTraceMode(this.traceMode);
+      }
       if (this.typeFile != null) {
         requestBuilder.setTypeDescriptionFile(
           Paths.get(this.typeFile).toAbsolutePath()
         );
       }
 
+      if (this.validationThreads != null) {
+        requestBuilder.setValidationThreads(this.validationThreads.intValue());
+      }
+      if (this.compressionThreads != null) {
+        requestBuilder.setEpubCompressionThreads(
+          this.compressionThreads.intValue());
+      }
+      requestBuilder.setEpubWriteIntermediateFiles(this.writeIntermediateFiles);
+      requestBuilder.setEpubIncremental(this.incremental);
+      requestBuilder.setEpubCheck(this.check);
+      if (this.storedMediaTypes != null) {
+        requestBuilder.setEpubStoredMediaTypes(this.storedMediaTypes);
+      }
       final var request = requestBuilder.build();
-      final var processors = new XSProcessors();
+      final var processors = XSMojoProcessors.get();
       final var processor = processors.create(request);
       processor.execute();
     } catch (final XSProcessorException e) {
@@ -19,7 +19,7 @@ package com.io7m.xstructural.maven_plugin;
 import com.io7m.xstructural.api.XSProcessorException;
 import com.io7m.xstructural.api.XSProcessorRequest;
 import com.io7m.xstructural.api.XSProcessorRequestType;
-import com.io7m.xstructural.vanilla.XSProcessors;
+import com.io7m.xstructural.api.XSProcessorRequestType.TraceMode;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -63,6 +63,22 @@ public final class XSXHTMLSingleMojo extends AbstractMojo
   )
   private boolean copyResources;
 
+  @Parameter(
+    name = "traceFile",
+    required = false)
+  private String traceFile;
+
+  @Parameter(
+    name = "traceMode",
+    defaultValue = "NONE",
+    required = false)
+  private TraceMode traceMode;
+
+  @Parameter(
+    name = "validationThreads",
+    required = false)
+  private Integer validationThreads;
+
   @Parameter(
     required = false,
     name = "skip",
@@ -103,14 +119,24 @@ public final class XSXHTMLSingleMojo extends AbstractMojo
         requestBuilder.setBrandingFile(
           Paths.get(this.brandingFile).toAbsolutePath());
       }
+      if (this.traceFile != null) {
+        requestBuilder.setTraceFile(
+          Paths.get(this.traceFile).toAbsolutePath());
+      }
+      if (this.traceMode != null) {
+        requestBuilder.setTraceMode(this.traceMode);
+      }
       if (this.typeFile != null) {
         requestBuilder.setTypeDescriptionFile(
           Paths.get(this.typeFile).toAbsolutePath()
         );
       }
 
+      if (this.validationThreads != null) {
+        requestBuilder.setValidationThreads(this.validationThreads.intValue());
+      }
       final var request = requestBuilder.build();
-      final var processors = new XSProcessors();
+      final var processors = XSMojoProcessors.get();
       final var processor = processors.create(request);
       processor.execute();
     } catch (final XSProcessorException e) {
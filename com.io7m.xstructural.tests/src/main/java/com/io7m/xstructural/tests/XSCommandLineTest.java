@@ -17,6 +17,7 @@
 package com.io7m.xstructural.tests;
 
 import com.io7m.xstructural.cmdline.Main;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -26,7 +27,9 @@ import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -298,9 +301,9 @@ public final class XSCommandLineTest
 
     Assertions.assertEquals(0, main.exitCode());
 
-    Assertions.assertTrue(
-      Files.isRegularFile(this.directory.resolve("trace.xml")),
-      "Trace file exists"
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("trace.xml")),
+      "Trace file is not written without --traceMode"
     );
     Assertions.assertTrue(
       Files.isRegularFile(this.directory.resolve("messages.log")),
@@ -341,9 +344,9 @@ public final class XSCommandLineTest
 
     Assertions.assertEquals(0, main.exitCode());
 
-    Assertions.assertTrue(
-      Files.isRegularFile(this.directory.resolve("trace.xml")),
-      "Trace file exists"
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("trace.xml")),
+      "Trace file is not written without --traceMode"
     );
     Assertions.assertTrue(
       Files.isRegularFile(this.directory.resolve("messages.log")),
@@ -386,9 +389,9 @@ public final class XSCommandLineTest
 
     Assertions.assertEquals(0, main.exitCode());
 
-    Assertions.assertTrue(
-      Files.isRegularFile(this.directory.resolve("trace.xml")),
-      "Trace file exists"
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("trace.xml")),
+      "Trace file is not written without --traceMode"
     );
     Assertions.assertTrue(
       Files.isRegularFile(this.directory.resolve("messages.log")),
@@ -431,9 +434,9 @@ public final class XSCommandLineTest
 
     Assertions.assertEquals(0, main.exitCode());
 
-    Assertions.assertTrue(
-      Files.isRegularFile(this.directory.resolve("trace.xml")),
-      "Trace file exists"
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("trace.xml")),
+      "Trace file is not written without --traceMode"
     );
     Assertions.assertTrue(
       Files.isRegularFile(this.directory.resolve("messages.log")),
@@ -474,9 +477,9 @@ public final class XSCommandLineTest
 
     Assertions.assertEquals(0, main.exitCode());
 
-    Assertions.assertTrue(
-      Files.isRegularFile(this.directory.resolve("trace.xml")),
-      "Trace file exists"
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("trace.xml")),
+      "Trace file is not written without --traceMode"
     );
     Assertions.assertTrue(
       Files.isRegularFile(this.directory.resolve("messages.log")),
@@ -513,9 +516,9 @@ public final class XSCommandLineTest
 
     Assertions.assertEquals(0, main.exitCode());
 
-    Assertions.assertTrue(
-      Files.isRegularFile(this.directory.resolve("trace.xml")),
-      "Trace file exists"
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("trace.xml")),
+      "Trace file is not written without --traceMode"
     );
     Assertions.assertTrue(
       Files.isRegularFile(this.directory.resolve("messages.log")),
@@ -554,9 +557,9 @@ public final class XSCommandLineTest
 
     Assertions.assertEquals(0, main.exitCode());
 
-    Assertions.assertTrue(
-      Files.isRegularFile(this.directory.resolve("trace.xml")),
-      "Trace file exists"
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("trace.xml")),
+      "Trace file is not written without --traceMode"
     );
     Assertions.assertTrue(
       Files.isRegularFile(this.directory.resolve("messages.log")),
@@ -595,9 +598,9 @@ public final class XSCommandLineTest
 
     Assertions.assertEquals(0, main.exitCode());
 
-    Assertions.assertTrue(
-      Files.isRegularFile(this.directory.resolve("trace.xml")),
-      "Trace file exists"
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("trace.xml")),
+      "Trace file is not written without --traceMode"
     );
     Assertions.assertTrue(
       Files.isRegularFile(this.directory.resolve("messages.log")),
@@ -871,9 +874,9 @@ public final class XSCommandLineTest
 
     Assertions.assertEquals(0, main.exitCode());
 
-    Assertions.assertTrue(
-      Files.isRegularFile(this.directory.resolve("trace.xml")),
-      "Trace file exists"
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("trace.xml")),
+      "Trace file is not written without --traceMode"
     );
     Assertions.assertTrue(
       Files.isRegularFile(this.directory.resolve("messages.log")),
@@ -885,6 +888,297 @@ public final class XSCommandLineTest
     );
   }
 
+  @Test
+  public void testTransformXHTMLEPUBCompressionThreadsIdentical()
+    throws Exception
+  {
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "poppy.jpg"
+    );
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "missing.jpg"
+    );
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "woods.jpg"
+    );
+
+    final var sourceFile =
+      XSTestDirectories.resourceOf(
+        XSCommandLineTest.class,
+        this.sourceDirectory,
+        "example1_80.xml");
+
+    for (final var threads : new String[]{"1", "4"}) {
+      final var main = new Main(new String[]{
+        "epub",
+        "--sourceFile",
+        sourceFile.toString(),
+        "--outputDirectory",
+        this.outputDirectory.toString(),
+        "--outputFileName",
+        String.format("output-%s.epub", threads),
+        "--compressionThreads",
+        threads,
+      });
+      XSOutputCaptured.capture(main::run);
+      Assertions.assertEquals(0, main.exitCode());
+    }
+
+    Assertions.assertArrayEquals(
+      Files.readAllBytes(this.outputDirectory.resolve("output-1.epub")),
+      Files.readAllBytes(this.outputDirectory.resolve("output-4.epub"))
+    );
+  }
+
+  @Test
+  public void testTransformXHTMLEPUBEntryMethods()
+    throws Exception
+  {
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "poppy.jpg"
+    );
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "missing.jpg"
+    );
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "woods.jpg"
+    );
+
+    final var sourceFile =
+      XSTestDirectories.resourceOf(
+        XSCommandLineTest.class,
+        this.sourceDirectory,
+        "example0_80.xml");
+
+    for (final var threads : new String[]{"1", "4"}) {
+      final var fileName = String.format("output-%s.epub", threads);
+      final var main = new Main(new String[]{
+        "epub",
+        "--sourceFile",
+        sourceFile.toString(),
+        "--outputDirectory",
+        this.outputDirectory.toString(),
+        "--outputFileName",
+        fileName,
+        "--compressionThreads",
+        threads,
+      });
+      XSOutputCaptured.capture(main::run);
+      Assertions.assertEquals(0, main.exitCode());
+
+      final var stored = new ArrayList<String>();
+      final var deflated = new ArrayList<String>();
+      try (var zip = ZipFile.builder()
+        .setPath(this.outputDirectory.resolve(fileName))
+        .get()) {
+        final var entries = zip.getEntries();
+        while (entries.hasMoreElements()) {
+          final var entry = entries.nextElement();
+          switch (entry.getMethod()) {
+            case ZipEntry.STORED -> stored.add(entry.getName());
+            case ZipEntry.DEFLATED -> deflated.add(entry.getName());
+            default -> Assertions.fail(
+              "Unexpected method for " + entry.getName());
+          }
+        }
+      }
+
+      Assertions.assertTrue(stored.contains("mimetype"));
+      Assertions.assertTrue(
+        stored.contains("OEBPS/poppy.jpg"),
+        stored::toString
+      );
+      Assertions.assertTrue(
+        stored.contains("OEBPS/woods.jpg"),
+        stored::toString
+      );
+      for (final var name : stored) {
+        Assertions.assertTrue(
+          name.equals("mimetype") || name.endsWith(".jpg"),
+          "Stored entry " + name
+        );
+      }
+
+      Assertions.assertTrue(deflated.contains("content.opf"));
+      Assertions.assertTrue(deflated.contains("META-INF/container.xml"));
+      for (final var name : deflated) {
+        Assertions.assertTrue(
+          name.endsWith(".xhtml")
+          || name.endsWith(".css")
+          || name.endsWith(".opf")
+          || name.endsWith(".ncx")
+          || name.endsWith(".xml"),
+          "Deflated entry " + name
+        );
+      }
+    }
+  }
+
+  @Test
+  public void testTransformXHTMLEPUBWriteIntermediateFiles()
+    throws Exception
+  {
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "poppy.jpg"
+    );
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "missing.jpg"
+    );
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "woods.jpg"
+    );
+
+    final var sourceFile =
+      XSTestDirectories.resourceOf(
+        XSCommandLineTest.class,
+        this.sourceDirectory,
+        "example1_80.xml");
+
+    for (final var write : new String[]{"false", "true"}) {
+      final var main = new Main(new String[]{
+        "epub",
+        "--sourceFile",
+        sourceFile.toString(),
+        "--outputDirectory",
+        this.outputDirectory.toString(),
+        "--outputFileName",
+        String.format("output-%s.epub", write),
+        "--writeIntermediateFiles",
+        write,
+      });
+      XSOutputCaptured.capture(main::run);
+      Assertions.assertEquals(0, main.exitCode());
+
+      final var epub = this.outputDirectory.resolve("epub");
+      Assertions.assertEquals(
+        Boolean.parseBoolean(write),
+        Files.isRegularFile(epub.resolve("content.opf"))
+      );
+      Assertions.assertEquals(
+        Boolean.parseBoolean(write),
+        Files.isRegularFile(epub.resolve("META-INF").resolve("container.xml"))
+      );
+    }
+
+    Assertions.assertArrayEquals(
+      Files.readAllBytes(this.outputDirectory.resolve("output-false.epub")),
+      Files.readAllBytes(this.outputDirectory.resolve("output-true.epub"))
+    );
+  }
+
+  @Test
+  public void testTransformXHTMLEPUBIncrementalIdentical()
+    throws Exception
+  {
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "poppy.jpg"
+    );
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "missing.jpg"
+    );
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "woods.jpg"
+    );
+
+    final var sourceFile =
+      XSTestDirectories.resourceOf(
+        XSCommandLineTest.class,
+        this.sourceDirectory,
+        "example1_80.xml");
+
+    final var epubFile =
+      this.outputDirectory.resolve("output.epub");
+
+    byte[] first = null;
+    for (final var incremental : new String[]{"false", "true", "true"}) {
+      final var main = new Main(new String[]{
+        "epub",
+        "--sourceFile",
+        sourceFile.toString(),
+        "--outputDirectory",
+        this.outputDirectory.toString(),
+        "--incremental",
+        incremental,
+      });
+      XSOutputCaptured.capture(main::run);
+      Assertions.assertEquals(0, main.exitCode());
+
+      final var data = Files.readAllBytes(epubFile);
+      if (first == null) {
+        first = data;
+      } else {
+        Assertions.assertArrayEquals(first, data);
+      }
+    }
+  }
+
+  @Test
+  public void testTransformXHTMLEPUBStructuralCheck()
+    throws Exception
+  {
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "poppy.jpg"
+    );
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "missing.jpg"
+    );
+    XSTestDirectories.resourceOf(
+      XSCommandLineTest.class,
+      this.sourceDirectory,
+      "woods.jpg"
+    );
+
+    final var sourceFile =
+      XSTestDirectories.resourceOf(
+        XSCommandLineTest.class,
+        this.sourceDirectory,
+        "example1_80.xml");
+
+    final var main = new Main(new String[]{
+      "epub",
+      "--sourceFile",
+      sourceFile.toString(),
+      "--outputDirectory",
+      this.outputDirectory.toString(),
+      "--check",
+      "STRUCTURAL",
+    });
+    XSOutputCaptured.capture(main::run);
+    Assertions.assertEquals(0, main.exitCode());
+    Assertions.assertTrue(
+      Files.isRegularFile(this.outputDirectory.resolve("output.epub")),
+      "EPUB file exists"
+    );
+  }
+
   @Test
   public void testTransformXHTMLEPUBOKExample2_70()
     throws Exception
@@ -979,9 +1273,9 @@ public final class XSCommandLineTest
 
     Assertions.assertEquals(0, main.exitCode());
 
-    Assertions.assertTrue(
-      Files.isRegularFile(this.directory.resolve("trace.xml")),
-      "Trace file exists"
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("trace.xml")),
+      "Trace file is not written without --traceMode"
     );
     Assertions.assertTrue(
       Files.isRegularFile(this.directory.resolve("messages.log")),
@@ -1036,9 +1330,9 @@ public final class XSCommandLineTest
 
     Assertions.assertEquals(0, main.exitCode());
 
-    Assertions.assertTrue(
-      Files.isRegularFile(this.directory.resolve("trace.xml")),
-      "Trace file exists"
+    Assertions.assertFalse(
+      Files.exists(this.directory.resolve("trace.xml")),
+      "Trace file is not written without --traceMode"
     );
     Assertions.assertTrue(
       Files.isRegularFile(this.directory.resolve("messages.log")),
@@ -0,0 +1,363 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.tests;
+
+import com.io7m.xstructural.vanilla.internal.xslt_extensions.XSDocumentIndex;
+import com.io7m.xstructural.vanilla.internal.xslt_extensions.XSNumberingScheme;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class XSDocumentIndexTest
+{
+  /**
+   * A stylesheet that numbers every element in the way that the
+   * stylesheets numbered elements before the document index existed.
+   */
+
+  private static final String REFERENCE_NUMBERING = """
+    <xsl:stylesheet version="3.0"
+      xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+      xmlns:xsd="http://www.w3.org/2001/XMLSchema">
+      <xsl:template match="/" as="xsd:string*">
+        <xsl:for-each select="//*">
+          <xsl:variable name="section" as="xsd:string">
+            <xsl:number level="multiple"
+                        count="*:Section"/>
+          </xsl:variable>
+          <xsl:variable name="subsection" as="xsd:string">
+            <xsl:choose>
+              <xsl:when test="self::*:Subsection">
+                <xsl:variable name="prefix" as="xsd:string*">
+                  <xsl:for-each select="ancestor::*:Section[1]">
+                    <xsl:number level="multiple"
+                                count="*:Section"/>
+                  </xsl:for-each>
+                </xsl:variable>
+                <xsl:variable name="suffix" as="xsd:string">
+                  <xsl:number level="multiple"
+                              count="*:Subsection"/>
+                </xsl:variable>
+                <xsl:sequence
+                  select="string-join(($prefix, $suffix), '.')"/>
+              </xsl:when>
+              <xsl:otherwise>
+                <xsl:sequence select="'-'"/>
+              </xsl:otherwise>
+            </xsl:choose>
+          </xsl:variable>
+          <xsl:variable name="item" as="xsd:string">
+            <xsl:number level="multiple"
+              count="*:Section|*:Subsection|*:Paragraph|*:FormalItem"/>
+          </xsl:variable>
+          <xsl:variable name="paragraph"
+            as="xsd:string"
+            select="string(count(preceding-sibling::*:Paragraph
+                               |preceding-sibling::*:FormalItem) + 1)"/>
+          <xsl:variable name="order" as="xsd:string">
+            <xsl:number level="any"
+                        count="*:Section|*:Subsection"/>
+          </xsl:variable>
+          <xsl:sequence select="string-join((
+            local-name(), $section, $subsection, $item, $paragraph, $order
+          ), '|')"/>
+        </xsl:for-each>
+      </xsl:template>
+    </xsl:stylesheet>
+    """;
+
+  private static final String SMALL_DOCUMENT = """
+    <Document xmlns="urn:com.io7m.structural:8:0">
+      <Paragraph id="p0">Before.</Paragraph>
+      <Section id="s0" title="A">
+        <Subsection id="ss0" title="A a">
+          <Paragraph id="p1">Text.<Footnote id="f0">Note.</Footnote></Paragraph>
+        </Subsection>
+        <Section id="s1" title="B">
+          <FormalItem id="fi0" title="F">Item.</FormalItem>
+        </Section>
+      </Section>
+      <Section id="s2" title="C">
+        <Paragraph id="p2">Last.</Paragraph>
+      </Section>
+    </Document>
+    """;
+
+  private Path directory;
+  private Processor processor;
+
+  @BeforeEach
+  public void testSetup()
+    throws IOException
+  {
+    this.directory = XSTestDirectories.createTempDirectory();
+    this.processor = new Processor(false);
+  }
+
+  private XdmNode parse(
+    final String text)
+    throws SaxonApiException
+  {
+    return this.processor.newDocumentBuilder()
+      .build(new StreamSource(new StringReader(text)));
+  }
+
+  private XdmNode parseResource(
+    final String name)
+    throws IOException, SaxonApiException
+  {
+    final var file =
+      XSTestDirectories.resourceOf(
+        XSDocumentIndexTest.class,
+        this.directory,
+        name
+      );
+    return this.processor.newDocumentBuilder().build(file.toFile());
+  }
+
+  private NodeInfo elementOf(
+    final XdmNode document,
+    final String id)
+    throws SaxonApiException
+  {
+    final var compiler = this.processor.newXPathCompiler();
+    compiler.declareVariable(new QName("id"));
+    final var selector = compiler.compile("//*[@id = $id]").load();
+    selector.setContextItem(document);
+    selector.setVariable(
+      new QName("id"),
+      new XdmAtomicValue(id)
+    );
+    return ((XdmNode) selector.evaluateSingle()).getUnderlyingNode();
+  }
+
+  private void checkNumbering(
+    final XdmNode document)
+    throws SaxonApiException
+  {
+    final var transformer =
+      this.processor.newXsltCompiler()
+        .compile(new StreamSource(new StringReader(REFERENCE_NUMBERING)))
+        .load30();
+
+    final var expected =
+      transformer.applyTemplates(document)
+        .stream()
+        .map(XdmItem::getStringValue)
+        .toList();
+
+    final var index = XSDocumentIndex.of(document.getUnderlyingNode());
+    final var received = new ArrayList<String>();
+    final var iterator = document.axisIterator(Axis.DESCENDANT);
+    while (iterator.hasNext()) {
+      final var node = iterator.next();
+      if (node.getNodeKind() != XdmNodeKind.ELEMENT) {
+        continue;
+      }
+
+      final var info = node.getUnderlyingNode();
+      final var name = info.getLocalPart();
+      final var subsection =
+        "Subsection".equals(name)
+          ? index.numberOf(info, XSNumberingScheme.SUBSECTION)
+          : "-";
+
+      received.add(String.join(
+        "|",
+        List.of(
+          name,
+          index.numberOf(info, XSNumberingScheme.SECTION),
+          subsection,
+          index.numberOf(info, XSNumberingScheme.ITEM),
+          index.numberOf(info, XSNumberingScheme.PARAGRAPH),
+          index.numberOf(info, XSNumberingScheme.ORDER)
+        )
+      ));
+    }
+
+    assertEquals(expected.size(), received.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.get(i), received.get(i), "Element " + i);
+    }
+  }
+
+  /**
+   * The numbers in the index match those of xsl:number for a document with
+   * nested sections and nested subsections.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testNumberingNested()
+    throws Exception
+  {
+    this.checkNumbering(this.parseResource("example0_80.xml"));
+  }
+
+  /**
+   * The numbers in the index match those of xsl:number for a document
+   * without sections.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testNumberingSubsectionsOnly()
+    throws Exception
+  {
+    this.checkNumbering(this.parseResource("example1_80.xml"));
+  }
+
+  /**
+   * The numbers in the index match those of xsl:number for a document with
+   * content outside of any section.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testNumberingSmall()
+    throws Exception
+  {
+    this.checkNumbering(this.parse(SMALL_DOCUMENT));
+  }
+
+  /**
+   * Elements are owned by their nearest enclosing section, or by the root
+   * element outside of any section.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testOwners()
+    throws Exception
+  {
+    final var document = this.parse(SMALL_DOCUMENT);
+    final var index = XSDocumentIndex.of(document.getUnderlyingNode());
+    final var root =
+      document.children().iterator().next().getUnderlyingNode();
+
+    final var s0 = this.elementOf(document, "s0");
+    final var s1 = this.elementOf(document, "s1");
+    final var s2 = this.elementOf(document, "s2");
+
+    assertEquals(root, index.ownerOf(root));
+    assertEquals(root, index.ownerOf(this.elementOf(document, "p0")));
+    assertEquals(s0, index.ownerOf(s0));
+    assertEquals(s0, index.ownerOf(this.elementOf(document, "ss0")));
+    assertEquals(s0, index.ownerOf(this.elementOf(document, "p1")));
+    assertEquals(s0, index.ownerOf(this.elementOf(document, "f0")));
+    assertEquals(s1, index.ownerOf(s1));
+    assertEquals(s1, index.ownerOf(this.elementOf(document, "fi0")));
+    assertEquals(s2, index.ownerOf(this.elementOf(document, "p2")));
+  }
+
+  /**
+   * Link targets are found by ID, including footnotes.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTargets()
+    throws Exception
+  {
+    final var document = this.parse(SMALL_DOCUMENT);
+    final var index = XSDocumentIndex.of(document.getUnderlyingNode());
+
+    for (final var id : List.of("p0", "s0", "ss0", "p1", "f0", "s1", "fi0")) {
+      assertEquals(
+        Optional.of(this.elementOf(document, id)),
+        index.targetOf(id),
+        id
+      );
+    }
+    assertEquals(Optional.empty(), index.targetOf("nonexistent"));
+  }
+
+  /**
+   * Sections are ordered in document order regardless of depth, and the
+   * first and last sections have no previous and next sections.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSectionOrder()
+    throws Exception
+  {
+    final var document = this.parse(SMALL_DOCUMENT);
+    final var index = XSDocumentIndex.of(document.getUnderlyingNode());
+
+    final var s0 = this.elementOf(document, "s0");
+    final var s1 = this.elementOf(document, "s1");
+    final var s2 = this.elementOf(document, "s2");
+
+    assertEquals(Optional.empty(), index.sectionPreviousOf(s0));
+    assertEquals(Optional.of(s1), index.sectionNextOf(s0));
+    assertEquals(Optional.of(s0), index.sectionPreviousOf(s1));
+    assertEquals(Optional.of(s2), index.sectionNextOf(s1));
+    assertEquals(Optional.of(s1), index.sectionPreviousOf(s2));
+    assertEquals(Optional.empty(), index.sectionNextOf(s2));
+
+    final var p1 = this.elementOf(document, "p1");
+    assertThrows(IllegalArgumentException.class, () -> {
+      index.sectionNextOf(p1);
+    });
+  }
+
+  /**
+   * Nodes from other trees are rejected.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testForeignNode()
+    throws Exception
+  {
+    final var index =
+      XSDocumentIndex.of(this.parse(SMALL_DOCUMENT).getUnderlyingNode());
+    final var other =
+      this.elementOf(this.parse(SMALL_DOCUMENT), "s0");
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      index.ownerOf(other);
+    });
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.tests;
+
+import com.io7m.xstructural.vanilla.internal.XSEPUBArchiveWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class XSEPUBArchiveWriterTest
+{
+  private Path directory;
+
+  @BeforeEach
+  public void testSetup()
+    throws IOException
+  {
+    this.directory = XSTestDirectories.createTempDirectory();
+  }
+
+  private static Map<String, String> entries(
+    final String a,
+    final String b)
+  {
+    final var entries = new LinkedHashMap<String, String>();
+    entries.put("OEBPS/a.xhtml", a);
+    entries.put("OEBPS/b.xhtml", b);
+    return entries;
+  }
+
+  private static void write(
+    final Path file,
+    final int threads,
+    final boolean reuse,
+    final Map<String, String> entries)
+    throws IOException
+  {
+    try (var writer = XSEPUBArchiveWriter.create(file, threads, reuse)) {
+      writer.addStored("mimetype", "application/epub+zip".getBytes(UTF_8));
+      for (final var entry : entries.entrySet()) {
+        writer.addBytes(entry.getKey(), entry.getValue().getBytes(UTF_8));
+      }
+      writer.finish();
+    }
+  }
+
+  private static String sha256(
+    final String text)
+    throws Exception
+  {
+    return HexFormat.of().formatHex(
+      MessageDigest.getInstance("SHA-256").digest(text.getBytes(UTF_8))
+    );
+  }
+
+  private List<Path> directoryContents()
+    throws IOException
+  {
+    try (var stream = Files.list(this.directory)) {
+      return stream.sorted().collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * An incremental build records the digest of every entry alongside the
+   * archive.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testManifestWritten()
+    throws Exception
+  {
+    final var file = this.directory.resolve("output.epub");
+    write(file, 1, true, entries("x", "y"));
+
+    assertEquals(
+      List.of(
+        sha256("application/epub+zip") + "  mimetype",
+        sha256("x") + "  OEBPS/a.xhtml",
+        sha256("y") + "  OEBPS/b.xhtml"
+      ),
+      Files.readAllLines(this.directory.resolve("output.epub.sha256"))
+    );
+  }
+
+  /**
+   * A non-incremental build removes any existing digest manifest, because
+   * the manifest would no longer describe the archive.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testManifestRemoved()
+    throws Exception
+  {
+    final var file = this.directory.resolve("output.epub");
+    write(file, 1, true, entries("x", "y"));
+    write(file, 1, false, entries("x", "z"));
+
+    assertFalse(Files.exists(this.directory.resolve("output.epub.sha256")));
+  }
+
+  /**
+   * Rebuilding incrementally after an entry has changed produces exactly the
+   * archive that a full build produces, with any number of threads.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testIncrementalChanged()
+    throws Exception
+  {
+    for (final var threads : new int[]{1, 4}) {
+      final var name = String.format("output-%d.epub", threads);
+      final var file = this.directory.resolve(name);
+      final var expected = this.directory.resolve("expected-" + name);
+
+      write(file, threads, true, entries("x", "y"));
+      write(file, threads, true, entries("x", "z"));
+      write(expected, threads, false, entries("x", "z"));
+
+      assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(file));
+      assertTrue(
+        Files.readAllLines(file.resolveSibling(name + ".sha256"))
+          .contains(sha256("z") + "  OEBPS/b.xhtml")
+      );
+    }
+  }
+
+  /**
+   * A rebuild that fails before the archive is finished leaves the previous
+   * archive and its manifest untouched, and leaves no temporary files.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testFailedRebuildKeepsPrevious()
+    throws Exception
+  {
+    final var file = this.directory.resolve("output.epub");
+    final var manifest = this.directory.resolve("output.epub.sha256");
+    write(file, 1, true, entries("x", "y"));
+
+    final var data = Files.readAllBytes(file);
+    final var digests = Files.readAllBytes(manifest);
+
+    for (final var threads : new int[]{1, 4}) {
+      try (var writer = XSEPUBArchiveWriter.create(file, threads, true)) {
+        writer.addStored("mimetype", "application/epub+zip".getBytes(UTF_8));
+        writer.addBytes("OEBPS/a.xhtml", "changed".getBytes(UTF_8));
+      }
+
+      assertArrayEquals(data, Files.readAllBytes(file));
+      assertArrayEquals(digests, Files.readAllBytes(manifest));
+      assertEquals(List.of(file, manifest), this.directoryContents());
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.tests;
+
+import com.io7m.xstructural.vanilla.internal.XSEPUBCheckReport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class XSEPUBCheckReportTest
+{
+  private Path directory;
+
+  @BeforeEach
+  public void testSetup()
+    throws IOException
+  {
+    this.directory = XSTestDirectories.createTempDirectory();
+  }
+
+  /**
+   * A valid EPUB produces no errors or warnings.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testValid()
+    throws Exception
+  {
+    final var file =
+      XSTestEPUBs.write(
+        this.directory.resolve("valid.epub"),
+        "",
+        "",
+        Map.of()
+      );
+
+    final var report = XSEPUBCheckReport.check(file);
+    assertEquals(0, report.errors());
+    assertEquals(0, report.warnings());
+    report.requireNoErrors();
+  }
+
+  /**
+   * A file that is not listed in the manifest produces a warning, and
+   * warnings alone do not fail the check.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testUnlistedFileWarns()
+    throws Exception
+  {
+    final var file =
+      XSTestEPUBs.write(
+        this.directory.resolve("unlisted.epub"),
+        "",
+        "",
+        Map.of("OEBPS/unlisted.xhtml", XSTestEPUBs.CHAPTER)
+      );
+
+    final var report = XSEPUBCheckReport.check(file);
+    assertEquals(0, report.errors());
+    assertTrue(report.warnings() > 0);
+    report.requireNoErrors();
+  }
+
+  /**
+   * A manifest item that refers to a missing file produces an error, and
+   * errors fail the check. Warnings are counted alongside the errors.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testMissingItemFails()
+    throws Exception
+  {
+    final var file =
+      XSTestEPUBs.write(
+        this.directory.resolve("missing.epub"),
+        """
+          <item id="c2" href="c2.xhtml"
+            media-type="application/xhtml+xml"/>
+          """,
+        "<itemref idref=\"c2\"/>",
+        Map.of("OEBPS/unlisted.xhtml", XSTestEPUBs.CHAPTER)
+      );
+
+    final var report = XSEPUBCheckReport.check(file);
+    assertTrue(report.errors() > 0);
+    assertTrue(report.warnings() > 0);
+
+    final var ex =
+      assertThrows(IOException.class, report::requireNoErrors);
+    assertTrue(
+      ex.getMessage().contains(
+        String.format("reported %d errors", report.errors())));
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.tests;
+
+import com.io7m.xstructural.vanilla.internal.XSEPUBStructuralChecker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public final class XSEPUBStructuralCheckerTest
+{
+  private Path directory;
+
+  @BeforeEach
+  public void testSetup()
+    throws IOException
+  {
+    this.directory = XSTestDirectories.createTempDirectory();
+  }
+
+  @Test
+  public void testValid()
+    throws Exception
+  {
+    final var file =
+      XSTestEPUBs.write(
+        this.directory.resolve("valid.epub"),
+        "",
+        "",
+        Map.of()
+      );
+
+    assertEquals(List.of(), XSEPUBStructuralChecker.check(file));
+  }
+
+  @Test
+  public void testMissingManifestItem()
+    throws Exception
+  {
+    final var file =
+      XSTestEPUBs.write(
+        this.directory.resolve("missing.epub"),
+        """
+          <item id="c2" href="c2.xhtml"
+            media-type="application/xhtml+xml"/>
+          """,
+        "<itemref idref=\"c2\"/>",
+        Map.of()
+      );
+
+    assertEquals(
+      List.of("Manifest item c2 refers to missing file OEBPS/c2.xhtml"),
+      XSEPUBStructuralChecker.check(file)
+    );
+  }
+
+  @Test
+  public void testDanglingHref()
+    throws Exception
+  {
+    final var file =
+      XSTestEPUBs.write(
+        this.directory.resolve("dangling.epub"),
+        "",
+        "",
+        Map.of("OEBPS/c1.xhtml", """
+          <?xml version="1.0" encoding="UTF-8"?>
+          <html xmlns="http://www.w3.org/1999/xhtml">
+            <head><title>One</title></head>
+            <body>
+              <p><a href="c2.xhtml">Two</a></p>
+              <p><a href="nav.xhtml#missing">Contents</a></p>
+              <p><img src="missing.png" alt="Missing"/></p>
+            </body>
+          </html>
+          """)
+      );
+
+    assertEquals(
+      List.of(
+        "OEBPS/c1.xhtml:5: link to missing file c2.xhtml",
+        "OEBPS/c1.xhtml:6: link to missing element nav.xhtml#missing",
+        "OEBPS/c1.xhtml:7: link to missing file missing.png"
+      ),
+      XSEPUBStructuralChecker.check(file)
+    );
+  }
+
+  @Test
+  public void testUnlistedFile()
+    throws Exception
+  {
+    final var file =
+      XSTestEPUBs.write(
+        this.directory.resolve("unlisted.epub"),
+        "",
+        "",
+        Map.of("OEBPS/unlisted.xhtml", XSTestEPUBs.CHAPTER)
+      );
+
+    assertEquals(
+      List.of("File OEBPS/unlisted.xhtml is not listed in the manifest"),
+      XSEPUBStructuralChecker.check(file)
+    );
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.tests;
+
+import com.io7m.xstructural.vanilla.internal.XSMessageListener;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class XSMessageListenerTest
+{
+  private static final int MESSAGE_COUNT = 2000;
+
+  private Path directory;
+
+  @BeforeEach
+  public void testSetup()
+    throws IOException
+  {
+    this.directory = XSTestDirectories.createTempDirectory();
+  }
+
+  /**
+   * Messages are written in the order in which they were produced, and a
+   * terminating message is in the message file, along with every message
+   * before it, by the time the transform fails.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTerminatingMessageFlushedInOrder()
+    throws Exception
+  {
+    final var processor = new Processor(false);
+    final var executable =
+      processor.newXsltCompiler()
+        .compile(new StreamSource(new StringReader("""
+          <xsl:stylesheet version="3.0"
+            xmlns:xsl="http://www.w3.org/1999/XSL/Transform">
+            <xsl:template name="xsl:initial-template">
+              <xsl:for-each select="1 to %d">
+                <xsl:message select="'message ' || ."/>
+              </xsl:for-each>
+              <xsl:message terminate="yes" select="'fatal'"/>
+            </xsl:template>
+          </xsl:stylesheet>
+          """.formatted(Integer.valueOf(MESSAGE_COUNT)))));
+
+    final var file = this.directory.resolve("messages.log");
+    try (var listener = new XSMessageListener(file)) {
+      final var transformer = executable.load30();
+      transformer.setMessageListener(listener);
+
+      assertThrows(SaxonApiException.class, () -> {
+        transformer.callTemplate(
+          null,
+          processor.newSerializer(OutputStream.nullOutputStream())
+        );
+      });
+
+      /*
+       * The listener has not been closed, so everything in the file must
+       * have been flushed by the terminating message.
+       */
+
+      final var lines = Files.readAllLines(file);
+      assertEquals(MESSAGE_COUNT + 1, lines.size());
+      for (int index = 0; index < MESSAGE_COUNT; ++index) {
+        final var line = lines.get(index);
+        assertTrue(line.endsWith(": message " + (index + 1)), line);
+      }
+      final var last = lines.get(MESSAGE_COUNT);
+      assertTrue(last.endsWith(": fatal"), last);
+    }
+  }
+
+  /**
+   * Closing a listener writes every message, and closing it again has no
+   * effect.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCloseWritesAll()
+    throws Exception
+  {
+    final var processor = new Processor(false);
+    final var executable =
+      processor.newXsltCompiler()
+        .compile(new StreamSource(new StringReader("""
+          <xsl:stylesheet version="3.0"
+            xmlns:xsl="http://www.w3.org/1999/XSL/Transform">
+            <xsl:template name="xsl:initial-template">
+              <xsl:for-each select="1 to %d">
+                <xsl:message select="'message ' || ."/>
+              </xsl:for-each>
+            </xsl:template>
+          </xsl:stylesheet>
+          """.formatted(Integer.valueOf(MESSAGE_COUNT)))));
+
+    final var file = this.directory.resolve("messages.log");
+    final var listener = new XSMessageListener(file);
+    final var transformer = executable.load30();
+    transformer.setMessageListener(listener);
+    transformer.callTemplate(
+      null,
+      processor.newSerializer(OutputStream.nullOutputStream())
+    );
+    listener.close();
+    listener.close();
+
+    final var lines = Files.readAllLines(file);
+    assertEquals(MESSAGE_COUNT, lines.size());
+    for (int index = 0; index < MESSAGE_COUNT; ++index) {
+      final var line = lines.get(index);
+      assertTrue(line.endsWith(": message " + (index + 1)), line);
+    }
+  }
+}
@@ -19,11 +19,20 @@ package com.io7m.xstructural.tests;
 import com.github.marschall.memoryfilesystem.MemoryFileSystemBuilder;
 import com.io7m.xstructural.api.XSProcessorRequest;
 import com.io7m.xstructural.api.XSProcessorRequestType;
+import com.io7m.xstructural.api.XSProcessorRequestType.TraceMode;
+import com.io7m.xstructural.api.XSProcessorType;
+import com.io7m.xstructural.api.XSSchemas;
 import com.io7m.xstructural.api.XSTransformException;
 import com.io7m.xstructural.api.XSValidationException;
 import com.io7m.xstructural.vanilla.XSProcessors;
+import com.io7m.xstructural.vanilla.internal.XSNamespaceSniffer;
 import com.io7m.xstructural.vanilla.internal.XSValidator;
+import com.io7m.xstructural.vanilla.internal.xslt_extensions.XSMIMEExtensionFunction;
 import com.io7m.xstructural.xml.SXMLResources;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmDestination;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -36,6 +45,7 @@ import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
@@ -44,9 +54,17 @@ import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public final class XSProcessorTest
@@ -242,6 +260,39 @@ public final class XSProcessorTest
     Assertions.assertTimeout(TIMEOUT, processor::execute);
   }
 
+  @Test
+  public void testCompileMultipleExample0_70SingleThreaded()
+    throws Exception
+  {
+    final var request =
+      XSProcessorRequest.builder()
+        .setOutputDirectory(this.outputDirectory)
+        .setSourceFile(XSTestDirectories.resourceOf(
+          XSProcessorTest.class,
+          this.sourceDirectory,
+          "example0_70.xml"))
+        .setTraceFile(this.directory.resolve("trace.xml"))
+        .setMessageFile(this.directory.resolve("messages.txt"))
+        .setStylesheet(XSProcessorRequestType.Stylesheet.MULTIPLE_FILE)
+        .setValidationThreads(1)
+        .build();
+
+    final var processor = this.processors.create(request);
+    Assertions.assertTimeout(TIMEOUT, processor::execute);
+  }
+
+  @Test
+  public void testValidationThreadsInvalid()
+  {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> {
+      XSProcessorRequest.builder()
+        .setOutputDirectory(this.outputDirectory)
+        .setSourceFile(this.directory.resolve("example0_70.xml"))
+        .setValidationThreads(0)
+        .build();
+    });
+  }
+
   @Test
   public void testCompileMultipleExample1_70()
     throws Exception
@@ -513,6 +564,529 @@ public final class XSProcessorTest
     }
   }
 
+  /**
+   * Requests executed concurrently through one factory must number documents
+   * exactly as a request executed alone does, because generated file names
+   * are derived from document numbers.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCompileMultipleConcurrentNumbering0_80()
+    throws Exception
+  {
+    final var source =
+      XSTestDirectories.resourceOf(
+        XSProcessorTest.class,
+        this.sourceDirectory,
+        "example1_index_80.xml");
+
+    final var baselineFiles =
+      this.executeNumbering(source, "baseline");
+
+    assertEquals(
+      List.of(
+        "d0e32.xhtml",
+        "d0e32.xhtml",
+        "d0e32.xhtml",
+        "d0e32.xhtml",
+        "d0e46.xhtml",
+        "d0e46.xhtml",
+        "d0e46.xhtml",
+        "d0e46.xhtml"),
+      baselineFiles.indexFiles()
+    );
+    assertTrue(baselineFiles.outputFiles().contains("d0e32.xhtml"));
+    assertTrue(baselineFiles.outputFiles().contains("d0e46.xhtml"));
+
+    final var executor = Executors.newFixedThreadPool(8);
+    try {
+      final var futures = new ArrayList<Future<NumberingResult>>();
+      for (int index = 0; index < 32; ++index) {
+        final var name = "concurrent-" + index;
+        futures.add(executor.submit(() -> this.executeNumbering(source, name)));
+      }
+      for (final var future : futures) {
+        assertEquals(baselineFiles, future.get(60L, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private record NumberingResult(
+    List<String> indexFiles,
+    List<String> outputFiles)
+  {
+
+  }
+
+  private NumberingResult executeNumbering(
+    final Path source,
+    final String name)
+    throws Exception
+  {
+    final var base =
+      this.directory.resolve(name);
+    final var indexOutput =
+      base.resolve("index");
+    final var multiOutput =
+      base.resolve("multi");
+
+    Files.createDirectories(indexOutput);
+    Files.createDirectories(multiOutput);
+
+    this.processors.create(
+      XSProcessorRequest.builder()
+        .setOutputDirectory(indexOutput)
+        .setSourceFile(source)
+        .setMessageFile(base.resolve("index-messages.txt"))
+        .setStylesheet(XSProcessorRequestType.Stylesheet.MULTIPLE_FILE_INDEX_ONLY)
+        .build()
+    ).execute();
+
+    this.processors.create(
+      XSProcessorRequest.builder()
+        .setOutputDirectory(multiOutput)
+        .setSourceFile(source)
+        .setMessageFile(base.resolve("multi-messages.txt"))
+        .setStylesheet(XSProcessorRequestType.Stylesheet.MULTIPLE_FILE)
+        .build()
+    ).execute();
+
+    final var d =
+      DocumentBuilderFactory.newNSInstance()
+        .newDocumentBuilder()
+        .parse(indexOutput.resolve("xstructural-index.xml").toFile());
+
+    final var items = d.getElementsByTagNameNS(
+      "urn:com.io7m.structural.index:1:0",
+      "Item");
+
+    final var indexFiles = new ArrayList<String>();
+    for (int index = 0; index < items.getLength(); ++index) {
+      indexFiles.add(((Element) items.item(index)).getAttribute("File"));
+    }
+
+    try (var stream = Files.list(multiOutput)) {
+      final var outputFiles =
+        stream.map(p -> p.getFileName().toString())
+          .sorted()
+          .toList();
+      return new NumberingResult(List.copyOf(indexFiles), outputFiles);
+    }
+  }
+
+  @Test
+  public void testTraceModeNone()
+    throws Exception
+  {
+    final var traceFile = this.executeTraced(TraceMode.NONE);
+    assertFalse(Files.exists(traceFile));
+  }
+
+  @Test
+  public void testTraceModeSummary()
+    throws Exception
+  {
+    final var traceFile = this.executeTraced(TraceMode.SUMMARY);
+    assertTrue(Files.isRegularFile(traceFile));
+
+    final var lines = Files.readAllLines(traceFile);
+    assertEquals("<templateSummary>", lines.get(1));
+    assertEquals("</templateSummary>", lines.get(lines.size() - 1));
+
+    final var templates = lines.subList(2, lines.size() - 1);
+    assertFalse(templates.isEmpty());
+    for (final var line : templates) {
+      assertTrue(
+        line.matches("  <template .* count=\"[1-9][0-9]*\"/>"),
+        line
+      );
+    }
+  }
+
+  @Test
+  public void testTraceModeFull()
+    throws Exception
+  {
+    final var traceFile = this.executeTraced(TraceMode.FULL);
+    assertTrue(Files.isRegularFile(traceFile));
+
+    final var text = Files.readString(traceFile);
+    assertTrue(text.contains("<trace"), text);
+    assertFalse(text.contains("<templateSummary>"), text);
+  }
+
+  private Path executeTraced(
+    final TraceMode mode)
+    throws Exception
+  {
+    final var traceFile = this.directory.resolve("trace.xml");
+    final var request =
+      XSProcessorRequest.builder()
+        .setOutputDirectory(this.outputDirectory)
+        .setSourceFile(XSTestDirectories.resourceOf(
+          XSProcessorTest.class,
+          this.sourceDirectory,
+          "example0_80.xml"))
+        .setTraceFile(traceFile)
+        .setTraceMode(mode)
+        .setMessageFile(this.directory.resolve("messages.txt"))
+        .setStylesheet(XSProcessorRequestType.Stylesheet.SINGLE_FILE)
+        .build();
+
+    final var processor = this.processors.create(request);
+    Assertions.assertTimeout(TIMEOUT, processor::execute);
+    return traceFile;
+  }
+
+  @Test
+  public void testValidateRootNotStructural()
+    throws Exception
+  {
+    final var request =
+      XSProcessorRequest.builder()
+        .setOutputDirectory(this.outputDirectory)
+        .setSourceFile(XSTestDirectories.resourceOf(
+          XSProcessorTest.class,
+          this.sourceDirectory,
+          "file0.xml"))
+        .setMessageFile(this.directory.resolve("messages.txt"))
+        .setTask(XSProcessorRequestType.Task.VALIDATE)
+        .build();
+
+    final var processor = this.processors.create(request);
+    final var ex =
+      Assertions.assertThrows(XSValidationException.class, processor::execute);
+
+    final var message = ex.getMessage();
+    assertTrue(message.contains("Root element: a (line 3)"), message);
+    assertTrue(message.contains("Namespace: (no namespace)"), message);
+  }
+
+  /**
+   * A document that declares a second structural namespace below the root
+   * element is ambiguous, even though the root element alone is not.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCompileMixedNamespaces_80()
+    throws Exception
+  {
+    final var source =
+      XSTestDirectories.resourceOf(
+        XSProcessorTest.class,
+        this.sourceDirectory,
+        "mixed_80.xml");
+
+    final var header =
+      XSNamespaceSniffer.sniffHeader(source);
+    assertEquals(
+      Optional.of(XSSchemas.namespace8p0()),
+      header.rootNamespace());
+    assertFalse(header.declared().contains(XSSchemas.namespace7p0()));
+
+    final var request =
+      XSProcessorRequest.builder()
+        .setOutputDirectory(this.outputDirectory)
+        .setSourceFile(source)
+        .setMessageFile(this.directory.resolve("messages.txt"))
+        .setStylesheet(XSProcessorRequestType.Stylesheet.SINGLE_FILE)
+        .build();
+
+    final var processor = this.processors.create(request);
+    final var ex =
+      Assertions.assertThrows(XSTransformException.class, processor::execute);
+    assertTrue(
+      ex.getMessage().contains("Ambiguous document."),
+      ex.getMessage()
+    );
+  }
+
+  /**
+   * Type attributes are validated after XInclude processing, so an
+   * undeclared type in an included file is an error.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testValidateTypeAttributesXInclude_80()
+    throws Exception
+  {
+    XSTestDirectories.resourceOf(
+      XSProcessorTest.class,
+      this.sourceDirectory,
+      "xinclude_types_section_80.xml"
+    );
+
+    final var source =
+      XSTestDirectories.resourceOf(
+        XSProcessorTest.class,
+        this.sourceDirectory,
+        "xinclude_types_80.xml"
+      );
+
+    this.processors.create(
+      XSProcessorRequest.builder()
+        .setOutputDirectory(this.outputDirectory)
+        .setSourceFile(source)
+        .setTask(XSProcessorRequestType.Task.VALIDATE)
+        .build()
+    ).execute();
+
+    final var request =
+      XSProcessorRequest.builder()
+        .setOutputDirectory(this.outputDirectory)
+        .setSourceFile(source)
+        .setTypeDescriptionFile(
+          XSTestDirectories.resourceOf(
+            XSProcessorTest.class,
+            this.sourceDirectory,
+            "types-example-0.xml"
+          )
+        )
+        .setTask(XSProcessorRequestType.Task.VALIDATE)
+        .build();
+
+    final var processor = this.processors.create(request);
+    Assertions.assertThrows(XSValidationException.class, processor::execute);
+  }
+
+  @Test
+  public void testValidateXHTMLCrossFileLinksOK()
+    throws Exception
+  {
+    this.writeLinkedXHTML(
+      "b.xhtml#b0",
+      "./b.xhtml#b0",
+      "../out/b.xhtml#b0",
+      "toc.xhtml#t0",
+      "b.xhtml",
+      "https://www.example.com/x.xhtml#nothing",
+      "mailto:someone@example.com",
+      "/absolute/x.xhtml"
+    );
+
+    this.createValidateXHTML().execute();
+  }
+
+  @Test
+  public void testValidateXHTMLCrossFileLinksMissingId()
+    throws Exception
+  {
+    this.writeLinkedXHTML("./b.xhtml#nonexistent");
+
+    final var processor = this.createValidateXHTML();
+    Assertions.assertThrows(XSValidationException.class, processor::execute);
+  }
+
+  @Test
+  public void testValidateXHTMLCrossFileLinksMissingFile()
+    throws Exception
+  {
+    this.writeLinkedXHTML("../nonexistent.xhtml#b0");
+
+    final var processor = this.createValidateXHTML();
+    Assertions.assertThrows(XSValidationException.class, processor::execute);
+  }
+
+  @Test
+  public void testValidateXHTMLCrossFileLinksMissingIdInTOC()
+    throws Exception
+  {
+    this.writeLinkedXHTML("toc.xhtml#nonexistent");
+
+    final var processor = this.createValidateXHTML();
+    Assertions.assertThrows(XSValidationException.class, processor::execute);
+  }
+
+  @Test
+  public void testValidateXHTMLCrossFileLinksFromTOC()
+    throws Exception
+  {
+    this.writeLinkedXHTML();
+    Files.writeString(
+      this.outputDirectory.resolve("toc.xhtml"),
+      navigationXHTML("t0", "b.xhtml#nonexistent")
+    );
+
+    final var processor = this.createValidateXHTML();
+    Assertions.assertThrows(XSValidationException.class, processor::execute);
+  }
+
+  private XSProcessorType createValidateXHTML()
+  {
+    return this.processors.create(
+      XSProcessorRequest.builder()
+        .setOutputDirectory(this.outputDirectory)
+        .setSourceFile(this.outputDirectory.resolve("a.xhtml"))
+        .setTask(XSProcessorRequestType.Task.VALIDATE_XHTML)
+        .build()
+    );
+  }
+
+  private void writeLinkedXHTML(
+    final String... hrefs)
+    throws IOException
+  {
+    Files.writeString(
+      this.outputDirectory.resolve("a.xhtml"),
+      xhtml("a0", hrefs)
+    );
+    Files.writeString(
+      this.outputDirectory.resolve("b.xhtml"),
+      xhtml("b0")
+    );
+    Files.writeString(
+      this.outputDirectory.resolve("toc.xhtml"),
+      navigationXHTML("t0", "b.xhtml#b0")
+    );
+  }
+
+  private static String xhtml(
+    final String id,
+    final String... hrefs)
+  {
+    final var text = new StringBuilder(256);
+    text.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    text.append("<html xmlns=\"http://www.w3.org/1999/xhtml\">\n");
+    text.append("<head><title>").append(id).append("</title></head>\n");
+    text.append("<body>\n");
+    text.append("<p id=\"").append(id).append("\">Text</p>\n");
+    for (final var href : hrefs) {
+      text.append("<p><a href=\"").append(href).append("\">Link</a></p>\n");
+    }
+    text.append("</body>\n");
+    text.append("</html>\n");
+    return text.toString();
+  }
+
+  private static String navigationXHTML(
+    final String id,
+    final String href)
+  {
+    return """
+      <?xml version="1.0" encoding="UTF-8"?>
+      <html xmlns="http://www.w3.org/1999/xhtml"
+            xmlns:epub="http://www.idpf.org/2007/ops">
+      <head><title>Contents</title></head>
+      <body>
+      <nav epub:type="toc" id="%s">
+      <ol><li><a href="%s">Link</a></li></ol>
+      </nav>
+      </body>
+      </html>
+      """.formatted(id, href);
+  }
+
+  /**
+   * The standalone EPUB package stylesheet requires only the MIME extension
+   * function, and produces a package file without the main EPUB stylesheet.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testEPUBPackageStandalone_80()
+    throws Exception
+  {
+    final var sourceFile =
+      XSTestDirectories.resourceOf(
+        XSProcessorTest.class,
+        this.sourceDirectory,
+        "example0_80.xml"
+      );
+    final var outputFile =
+      this.outputDirectory.resolve("content.opf");
+
+    final var processor = new Processor(false);
+    processor.registerExtensionFunction(new XSMIMEExtensionFunction());
+
+    final var stylesheet = new SXMLResources().s8EpubPackage();
+    final var executable =
+      processor.newXsltCompiler()
+        .compile(new StreamSource(stylesheet.openStream(),
+                                  stylesheet.toString()));
+
+    final var transformer = executable.load30();
+    transformer.setBaseOutputURI(this.outputDirectory.toUri().toString());
+    transformer.setStylesheetParameters(Map.of(
+      new net.sf.saxon.s9api.QName("outputFile"),
+      new XdmAtomicValue(outputFile.toUri().toString()),
+      new net.sf.saxon.s9api.QName("sourceDirectory"),
+      new XdmAtomicValue(this.sourceDirectory.toUri().toString())
+    ));
+    transformer.applyTemplates(
+      new StreamSource(sourceFile.toFile()),
+      new XdmDestination()
+    );
+
+    final var text = Files.readString(outputFile);
+    assertTrue(text.contains("<package"), text);
+    assertTrue(text.contains("href=\"OEBPS/woods.jpg\""), text);
+    assertTrue(text.contains("media-type=\"image/jpeg\""), text);
+    assertTrue(text.contains("<spine"), text);
+  }
+
+  /**
+   * An EPUB file is built from the result documents alone when no
+   * intermediate files are written.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testEPUBWithoutIntermediateFiles_80()
+    throws Exception
+  {
+    for (final var name : List.of("poppy.jpg", "woods.jpg", "missing.jpg")) {
+      XSTestDirectories.resourceOf(
+        XSProcessorTest.class,
+        this.sourceDirectory,
+        name
+      );
+    }
+
+    final var request =
+      XSProcessorRequest.builder()
+        .setOutputDirectory(this.outputDirectory)
+        .setSourceFile(XSTestDirectories.resourceOf(
+          XSProcessorTest.class,
+          this.sourceDirectory,
+          "example0_80.xml"))
+        .setMessageFile(this.directory.resolve("messages.txt"))
+        .setStylesheet(XSProcessorRequestType.Stylesheet.EPUB)
+        .setTask(XSProcessorRequestType.Task.TRANSFORM_EPUB)
+        .setEpubWriteIntermediateFiles(false)
+        .build();
+
+    final var processor = this.processors.create(request);
+    processor.execute();
+
+    assertFalse(Files.exists(this.outputDirectory.resolve("epub")));
+
+    final var names = new ArrayList<String>();
+    try (var zip = ZipFile.builder()
+      .setPath(this.outputDirectory.resolve("output.epub"))
+      .get()) {
+      final var entries = zip.getEntries();
+      while (entries.hasMoreElements()) {
+        names.add(entries.nextElement().getName());
+      }
+    }
+
+    assertEquals("mimetype", names.get(0));
+    assertTrue(names.contains("content.opf"), names.toString());
+    assertTrue(names.contains("META-INF/container.xml"), names.toString());
+    assertTrue(names.contains("OEBPS/toc.ncx"), names.toString());
+    assertTrue(names.contains("OEBPS/woods.jpg"), names.toString());
+  }
+
   @Test
   public void testBug17()
     throws Exception
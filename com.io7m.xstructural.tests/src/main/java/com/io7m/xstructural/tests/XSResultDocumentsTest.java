@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.tests;
+
+import com.io7m.xstructural.vanilla.internal.XSResultDocuments;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmValue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class XSResultDocumentsTest
+{
+  private Path directory;
+  private Path outputDirectory;
+
+  @BeforeEach
+  public void testSetup()
+    throws IOException
+  {
+    this.directory = XSTestDirectories.createTempDirectory();
+    this.outputDirectory = this.directory.resolve("out");
+  }
+
+  private XSResultDocuments transform(
+    final String... hrefs)
+    throws SaxonApiException
+  {
+    final var text = new StringBuilder(512);
+    text.append("""
+      <xsl:stylesheet version="3.0"
+        xmlns:xsl="http://www.w3.org/1999/XSL/Transform">
+        <xsl:param name="out"/>
+        <xsl:template name="xsl:initial-template">
+      """);
+    for (final var href : hrefs) {
+      text.append("""
+          <xsl:result-document href="{$out}/%s" method="text">
+            <xsl:text>%s</xsl:text>
+          </xsl:result-document>
+        """.formatted(href, href));
+    }
+    text.append("""
+        </xsl:template>
+      </xsl:stylesheet>
+      """);
+
+    final var processor = new Processor(false);
+    final var executable =
+      processor.newXsltCompiler()
+        .compile(new StreamSource(new StringReader(text.toString())));
+
+    final var documents = new XSResultDocuments(this.outputDirectory);
+    final var transformer = executable.load30();
+    documents.install(processor, transformer);
+    transformer.setStylesheetParameters(
+      Map.<QName, XdmValue>of(
+        new QName("out"),
+        new XdmAtomicValue(this.outputDirectory.toUri().toString())
+      )
+    );
+    transformer.callTemplate(
+      null,
+      processor.newSerializer(OutputStream.nullOutputStream())
+    );
+    return documents;
+  }
+
+  @Test
+  public void testSameFileNameDifferentDirectories()
+    throws Exception
+  {
+    final var documents = this.transform("a/x.xhtml", "b/x.xhtml", "x.xhtml");
+
+    assertEquals(
+      List.of("a/x.xhtml", "b/x.xhtml", "x.xhtml"),
+      documents.names()
+    );
+    assertArrayEquals(
+      "b/x.xhtml".getBytes(StandardCharsets.UTF_8),
+      documents.bytesOf("b/x.xhtml").orElseThrow()
+    );
+    assertSame(
+      documents.bytesOf("a/x.xhtml").orElseThrow(),
+      documents.bytesOf("a/x.xhtml").orElseThrow()
+    );
+    assertEquals(
+      Optional.of("a/x.xhtml"),
+      documents.nameOf(this.outputDirectory.resolve("a").resolve("x.xhtml"))
+    );
+  }
+
+  @Test
+  public void testDuplicatePath()
+  {
+    assertThrows(
+      Exception.class,
+      () -> this.transform("a/x.xhtml", "a/../a/x.xhtml")
+    );
+  }
+
+  @Test
+  public void testOutsideOutputDirectory()
+  {
+    assertThrows(
+      Exception.class,
+      () -> this.transform("../x.xhtml")
+    );
+  }
+}
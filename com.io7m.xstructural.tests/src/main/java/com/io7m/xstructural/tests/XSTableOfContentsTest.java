@@ -0,0 +1,236 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.tests;
+
+import com.io7m.xstructural.vanilla.internal.XSSaxonContext;
+import com.io7m.xstructural.xml.SXMLResources;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XsltExecutable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class XSTableOfContentsTest
+{
+  /**
+   * A stylesheet that imports one of the web stylesheets and replaces the
+   * table of contents with the implementation that preceded the table of
+   * contents tree: every entry is resolved again for every page, and
+   * numbers are produced with xsl:number.
+   */
+
+  private static final String PREVIOUS_TABLE_OF_CONTENTS = """
+    <xsl:stylesheet version="3.0"
+      xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+      xmlns:xsd="http://www.w3.org/2001/XMLSchema"
+      xmlns="http://www.w3.org/1999/xhtml"
+      exclude-result-prefixes="#all">
+
+      <xsl:import href="%s"/>
+
+      <xsl:template name="xstructural.tableOfContents.itemsOf">
+        <xsl:param name="node" as="element()" required="yes"/>
+        <xsl:param name="depthMaximum" as="xsd:integer" required="yes"/>
+        <xsl:apply-templates select="$node/(*:Section|*:Subsection)"
+                             mode="previous">
+          <xsl:with-param name="depthCurrent" select="0"/>
+          <xsl:with-param name="depthMaximum" select="$depthMaximum"/>
+        </xsl:apply-templates>
+      </xsl:template>
+
+      <xsl:template match="*:Section|*:Subsection" mode="previous">
+        <xsl:param name="depthMaximum" as="xsd:integer"/>
+        <xsl:param name="depthCurrent" as="xsd:integer"/>
+
+        <xsl:if test="$depthCurrent &lt;= $depthMaximum">
+          <li>
+            <xsl:variable name="numberTitle">
+              <xsl:apply-templates select="." mode="previous.number"/>
+            </xsl:variable>
+            <a>
+              <xsl:attribute name="href">
+                <xsl:call-template name="xstructural.links.anchorOf">
+                  <xsl:with-param name="target" select="."/>
+                </xsl:call-template>
+              </xsl:attribute>
+              <xsl:attribute name="title">
+                <xsl:call-template name="xstructural.titles.anchorTitleFor">
+                  <xsl:with-param name="node" select="."/>
+                </xsl:call-template>
+              </xsl:attribute>
+              <xsl:value-of
+                select="concat($numberTitle,'. ',attribute::title)"/>
+            </a>
+            <xsl:if test="$depthCurrent + 1 &lt; $depthMaximum
+                          and exists(*:Section|*:Subsection)">
+              <ul>
+                <xsl:apply-templates select="*:Section|*:Subsection"
+                                     mode="previous">
+                  <xsl:with-param name="depthMaximum"
+                                  select="$depthMaximum"/>
+                  <xsl:with-param name="depthCurrent"
+                                  select="$depthCurrent + 1"/>
+                </xsl:apply-templates>
+              </ul>
+            </xsl:if>
+          </li>
+        </xsl:if>
+      </xsl:template>
+
+      <xsl:template match="*:Section" mode="previous.number">
+        <xsl:number level="multiple" count="*:Section"/>
+      </xsl:template>
+
+      <xsl:template match="*:Subsection" mode="previous.number">
+        <xsl:for-each select="ancestor::*:Section[1]">
+          <xsl:number level="multiple" count="*:Section"/>
+          <xsl:text>.</xsl:text>
+        </xsl:for-each>
+        <xsl:number level="multiple" count="*:Subsection"/>
+      </xsl:template>
+    </xsl:stylesheet>
+    """;
+
+  private Path directory;
+  private Path sourceDirectory;
+  private Processor processor;
+  private XdmNode document;
+
+  @BeforeEach
+  public void testSetup()
+    throws Exception
+  {
+    this.directory = XSTestDirectories.createTempDirectory();
+    this.sourceDirectory = this.directory.resolve("source");
+    Files.createDirectories(this.sourceDirectory);
+
+    this.processor = new XSSaxonContext().processor();
+
+    final var source =
+      XSTestDirectories.resourceOf(
+        XSTableOfContentsTest.class,
+        this.sourceDirectory,
+        "example0_80.xml"
+      );
+    this.document =
+      this.processor.newDocumentBuilder().build(source.toFile());
+  }
+
+  private Map<String, String> run(
+    final XsltExecutable executable,
+    final String name)
+    throws Exception
+  {
+    final var output = this.directory.resolve(name);
+    Files.createDirectories(output);
+
+    final var transformer = executable.load30();
+    transformer.setMessageHandler(message -> {
+    });
+    transformer.setStylesheetParameters(Map.of(
+      new QName("xstructural.outputDirectory"),
+      new XdmAtomicValue(output.toUri().toString()),
+      new QName("xstructural.sourceDirectory"),
+      new XdmAtomicValue(this.sourceDirectory.toUri().toString())
+    ));
+    transformer.applyTemplates(
+      this.document,
+      this.processor.newSerializer(OutputStream.nullOutputStream())
+    );
+
+    final var files = new TreeMap<String, String>();
+    try (var stream = Files.list(output)) {
+      for (final var file : stream.toList()) {
+        files.put(
+          file.getFileName().toString(),
+          Files.readString(file)
+        );
+      }
+    }
+    return files;
+  }
+
+  private void checkMatchesPrevious(
+    final URL stylesheet)
+    throws Exception
+  {
+    final var compiler = this.processor.newXsltCompiler();
+    final var current =
+      compiler.compile(new StreamSource(stylesheet.toString()));
+    final var previous =
+      compiler.compile(new StreamSource(new StringReader(
+        PREVIOUS_TABLE_OF_CONTENTS.formatted(stylesheet))));
+
+    final var expected = this.run(previous, "previous");
+    final var received = this.run(current, "current");
+
+    assertTrue(
+      expected.values()
+        .stream()
+        .anyMatch(text -> text.contains("stTableOfContents")),
+      "Output contains a table of contents"
+    );
+    assertEquals(expected.keySet(), received.keySet());
+    for (final var name : expected.keySet()) {
+      assertEquals(expected.get(name), received.get(name), name);
+    }
+  }
+
+  /**
+   * The single file output of a document with nested sections and
+   * subsections is identical to the output of the previous table of
+   * contents implementation.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSingleFileMatchesPrevious()
+    throws Exception
+  {
+    this.checkMatchesPrevious(new SXMLResources().s8Single());
+  }
+
+  /**
+   * Every page of the multiple file output of a document with nested
+   * sections and subsections is identical to the output of the previous
+   * table of contents implementation.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testMultipleFileMatchesPrevious()
+    throws Exception
+  {
+    this.checkMatchesPrevious(new SXMLResources().s8Multi());
+  }
+}
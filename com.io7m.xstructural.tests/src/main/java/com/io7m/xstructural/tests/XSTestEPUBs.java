@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.tests;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Minimal hand-built EPUB files for testing EPUB checkers.
+ */
+
+public final class XSTestEPUBs
+{
+  private static final String CONTAINER = """
+    <?xml version="1.0" encoding="UTF-8"?>
+    <container version="1.0"
+      xmlns="urn:oasis:names:tc:opendocument:xmlns:container">
+      <rootfiles>
+        <rootfile full-path="OEBPS/content.opf"
+          media-type="application/oebps-package+xml"/>
+      </rootfiles>
+    </container>
+    """;
+
+  private static final String PACKAGE = """
+    <?xml version="1.0" encoding="UTF-8"?>
+    <package xmlns="http://www.idpf.org/2007/opf"
+      version="3.0"
+      unique-identifier="id">
+      <metadata xmlns:dc="http://purl.org/dc/elements/1.1/">
+        <dc:identifier id="id">urn:x-xstructural:test</dc:identifier>
+        <dc:title>Test</dc:title>
+        <dc:language>en</dc:language>
+        <meta property="dcterms:modified">2021-01-01T00:00:00Z</meta>
+      </metadata>
+      <manifest>
+        <item id="nav" href="nav.xhtml"
+          media-type="application/xhtml+xml" properties="nav"/>
+        <item id="c1" href="c1.xhtml" media-type="application/xhtml+xml"/>
+        %s
+      </manifest>
+      <spine>
+        <itemref idref="c1"/>
+        %s
+      </spine>
+    </package>
+    """;
+
+  private static final String NAVIGATION = """
+    <?xml version="1.0" encoding="UTF-8"?>
+    <!DOCTYPE html>
+    <html xmlns="http://www.w3.org/1999/xhtml"
+      xmlns:epub="http://www.idpf.org/2007/ops">
+      <head><title>Contents</title></head>
+      <body>
+        <nav epub:type="toc">
+          <ol><li><a href="c1.xhtml">One</a></li></ol>
+        </nav>
+      </body>
+    </html>
+    """;
+
+  public static final String CHAPTER = """
+    <?xml version="1.0" encoding="UTF-8"?>
+    <!DOCTYPE html>
+    <html xmlns="http://www.w3.org/1999/xhtml">
+      <head><title>One</title></head>
+      <body><p>One</p></body>
+    </html>
+    """;
+
+  private XSTestEPUBs()
+  {
+
+  }
+
+  /**
+   * Write a valid EPUB file containing a navigation document and a single
+   * chapter. The manifest and spine may be extended with extra entries, and
+   * extra files may be added to (or may replace files in) the archive.
+   *
+   * @param file          The output file
+   * @param extraManifest Extra manifest items
+   * @param extraSpine    Extra spine items
+   * @param extraFiles    Extra files
+   *
+   * @return The output file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static Path write(
+    final Path file,
+    final String extraManifest,
+    final String extraSpine,
+    final Map<String, String> extraFiles)
+    throws IOException
+  {
+    final var files = new TreeMap<String, String>();
+    files.put("META-INF/container.xml", CONTAINER);
+    files.put(
+      "OEBPS/content.opf",
+      PACKAGE.formatted(extraManifest, extraSpine));
+    files.put("OEBPS/nav.xhtml", NAVIGATION);
+    files.put("OEBPS/c1.xhtml", CHAPTER);
+    files.putAll(extraFiles);
+
+    try (var output = new ZipOutputStream(Files.newOutputStream(file))) {
+      final var mimetype = "application/epub+zip".getBytes(UTF_8);
+      final var crc = new CRC32();
+      crc.update(mimetype);
+
+      final var entry = new ZipEntry("mimetype");
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(mimetype.length);
+      entry.setCompressedSize(mimetype.length);
+      entry.setCrc(crc.getValue());
+      output.putNextEntry(entry);
+      output.write(mimetype);
+      output.closeEntry();
+
+      for (final var fileEntry : files.entrySet()) {
+        output.putNextEntry(new ZipEntry(fileEntry.getKey()));
+        output.write(fileEntry.getValue().getBytes(UTF_8));
+        output.closeEntry();
+      }
+    }
+    return file;
+  }
+}
@@ -19,25 +19,63 @@ package com.io7m.xstructural.vanilla;
 import com.io7m.xstructural.api.XSProcessorFactoryType;
 import com.io7m.xstructural.api.XSProcessorRequest;
 import com.io7m.xstructural.api.XSProcessorType;
+import com.io7m.xstructural.api.XSValidationException;
 import com.io7m.xstructural.vanilla.internal.XSProcessor;
+import com.io7m.xstructural.vanilla.internal.XSSaxonContext;
+import com.io7m.xstructural.vanilla.internal.XSXHTMLSchemas;
+import com.io7m.xstructural.xml.SXMLResources;
 import org.osgi.service.component.annotations.Component;
 
 import java.util.Objects;
 
 /**
- * The default processor factory.
+ * <p>The default processor factory.</p>
+ *
+ * <p>Every processor created by the factory uses a single long-lived Saxon
+ * processor, and the stylesheets compiled against it, shared by all
+ * factories in the JVM. Each stylesheet is compiled once, by the first
+ * request that uses it, and each request loads its own transformer from the
+ * compiled stylesheet. Factories are thread-safe, and requests created by
+ * them may execute concurrently.</p>
  */
 
 @Component(service = XSProcessorFactoryType.class)
 public final class XSProcessors implements XSProcessorFactoryType
 {
+  private final XSSaxonContext saxon;
+
   /**
    * Construct a processor factory.
    */
 
   public XSProcessors()
   {
+    this.saxon = XSSaxonContext.shared();
+  }
 
+  /**
+   * Compile the XHTML 1.1 schema used to validate XHTML output, if it has not
+   * already been compiled. The compiled schema is shared by all processors
+   * in the JVM, and is otherwise compiled by the first request that
+   * validates XHTML. Applications may call this method ahead of time (on a
+   * background thread, for example) to remove the cost of compilation from
+   * the first request.
+   *
+   * @throws XSValidationException If the schema cannot be compiled
+   *
+   * @since 2.2.0
+   */
+
+  public static void preloadXHTMLSchema()
+    throws XSValidationException
+  {
+    try {
+      XSXHTMLSchemas.xhtml11(new SXMLResources());
+    } catch (final XSValidationException e) {
+      throw e;
+    } catch (final Exception e) {
+      throw new XSValidationException(e);
+    }
   }
 
   @Override
@@ -45,6 +83,7 @@ public final class XSProcessors implements XSProcessorFactoryType
     final XSProcessorRequest request)
   {
     return new XSProcessor(
+      this.saxon,
       Objects.requireNonNull(request, "request")
     );
   }
@@ -0,0 +1,194 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xstructural.vanilla.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>A buffer of log messages.</p>
+ *
+ * <p>Work that executes concurrently records its diagnostics into a buffer
+ * rather than logging them directly, and the buffers are then replayed in a
+ * deterministic order once all of the work has completed. A buffer is not
+ * thread-safe, and is expected to be used by one thread at a time.</p>
+ */
+
+public final class XSDiagnosticBuffer
+{
+  private final List<Diagnostic> diagnostics;
+  private boolean failed;
+
+  /**
+   * A buffer of log messages.
+   */
+
+  public XSDiagnosticBuffer()
+  {
+    this.diagnostics = new ArrayList<>();
+  }
+
+  /**
+   * @return {@code true} if an error has been recorded
+   */
+
+  public boolean isFailed()
+  {
+    return this.failed;
+  }
+
+  /**
+   * Record an informational message.
+   *
+   * @param logger    The logger to which the message will be replayed
+   * @param format    The message format
+   * @param arguments The message arguments
+   */
+
+  public void info(
+    final Logger logger,
+    final String format,
+    final Object... arguments)
+  {
+    this.diagnostics.add(new Diagnostic(logger, Level.INFO, format, arguments));
+  }
+
+  /**
+   * Record a warning. Warnings do not cause the buffer to be marked as
+   * failed.
+   *
+   * @param logger    The logger to which the message will be replayed
+   * @param format    The message format
+   * @param arguments The message arguments
+   */
+
+  public void warn(
+    final Logger logger,
+    final String format,
+    final Object... arguments)
+  {
+    this.diagnostics.add(new Diagnostic(logger, Level.WARN, format, arguments));
+  }
+
+  /**
+   * Record an error, and mark the buffer as failed.
+   *
+   * @param logger    The logger to which the message will be replayed
+   * @param format    The message format
+   * @param arguments The message arguments
+   */
+
+  public void error(
+    final Logger logger,
+    final String format,
+    final Object... arguments)
+  {
+    this.failed = true;
+    this.diagnostics.add(new Diagnostic(logger, Level.ERROR, format, arguments));
+  }
+
+  /**
+   * Create an error handler that records parse errors into this buffer. The
+   * handler behaves as {@link XSErrorHandler} does, with the exception that
+   * messages are buffered rather than logged immediately.
+   *
+   * @param logger The logger to which messages will be replayed
+   *
+   * @return An error handler
+   */
+
+  public ErrorHandler errorHandler(
+    final Logger logger)
+  {
+    Objects.requireNonNull(logger, "logger");
+
+    return new ErrorHandler()
+    {
+      @Override
+      public void warning(
+        final SAXParseException exception)
+      {
+        XSDiagnosticBuffer.this.warn(logger, "{}:{}:{}: {}", arguments(exception));
+        XSDiagnosticBuffer.this.failed = true;
+      }
+
+      @Override
+      public void error(
+        final SAXParseException exception)
+      {
+        XSDiagnosticBuffer.this.error(logger, "{}:{}:{}: {}", arguments(exception));
+      }
+
+      @Override
+      public void fatalError(
+        final SAXParseException exception)
+        throws SAXException
+      {
+        XSDiagnosticBuffer.this.error(logger, "{}:{}:{}: {}", arguments(exception));
+        throw exception;
+      }
+    };
+  }
+
+  private static Object[] arguments(
+    final SAXParseException exception)
+  {
+    return new Object[]{
+      exception.getSystemId(),
+      Integer.valueOf(exception.getLineNumber()),
+      Integer.valueOf(exception.getColumnNumber()),
+      exception.getMessage(),
+    };
+  }
+
+  /**
+   * Log all of the recorded messages, in the order in which they were
+   * recorded.
+   */
+
+  public void replay()
+  {
+    for (final var diagnostic : this.diagnostics) {
+      diagnostic.logger()
+        .atLevel(diagnostic.level())
+        .log(diagnostic.format(), diagnostic.arguments());
+    }
+  }
+
+  private record Diagnostic(
+    Logger logger,
+    Level level,
+    String format,
+    Object[] arguments)
+  {
+    private Diagnostic
+    {
+      Objects.requireNonNull(logger, "logger");
+      Objects.requireNonNull(level, "level");
+      Objects.requireNonNull(format, "format");
+      Objects.requireNonNull(arguments, "arguments");
+    }
+  }
+}
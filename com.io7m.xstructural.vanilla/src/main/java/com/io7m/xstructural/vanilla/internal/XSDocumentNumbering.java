@@ -16,43 +16,175 @@
 
 package com.io7m.xstructural.vanilla.internal;
 
-import net.sf.saxon.s9api.XsltTransformer;
+import net.sf.saxon.Configuration;
 import net.sf.saxon.tree.util.DocumentNumberAllocator;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Functions to reset document numbering in Saxon.
  */
 
 public final class XSDocumentNumbering
 {
+  /**
+   * The first document number allocated to documents built outside of a
+   * numbering scope.
+   */
+
+  public static final long UNSCOPED_FIRST = 1L << 40;
+
   private XSDocumentNumbering()
   {
 
   }
 
+  /**
+   * Install a document number allocator that supports request-local
+   * numbering into the given configuration. This must be called once, before
+   * the configuration is used. The configuration may then be shared by any
+   * number of concurrent requests, because numbering scopes belong to the
+   * thread that opened them.
+   *
+   * @param configuration The configuration
+   */
+
+  public static void install(
+    final Configuration configuration)
+  {
+    configuration.setDocumentNumberAllocator(new ScopedAllocator());
+  }
+
   /**
    * When the XSLT processor transforms a document, it uses a document number
    * allocator that will be called when XSLT code calls generate-id(). The
    * document number allocator increments a counter for each document
-   * encountered. This means that an XSLT transformer that has transformed
-   * multiple documents will give different values for generate-id() than
-   * one that has transformed only one document. Because the XSLT transformer
-   * that is used before this EPUB package creator will transform multiple
-   * documents due to having to compile multiple stylesheets, we need to
-   * manually increment the document number allocator for _this_ transformer
-   * in order to get the same filename values in the generated EPUB package.
+   * encountered. This means that an XSLT processor that has compiled
+   * stylesheets or transformed other documents will give different values
+   * for generate-id() than one that has transformed only one document.
+   * Because generate-id() values are used to produce file names, and
+   * because file names must not depend on what the processor happened to do
+   * beforehand, every transform must begin numbering documents from the
+   * same point.
+   *
+   * The allocator divides document numbers into two ranges. Documents built
+   * while a scope is open are numbered from zero, and documents built outside
+   * of any scope (such as the modules of a stylesheet being compiled) are
+   * numbered from {@link #UNSCOPED_FIRST}, so that a document that outlives
+   * a request never shares a number with a document of a later request.
+   *
+   * A scope is local to the thread that opened it. A transform builds all of
+   * its documents on the thread of the request that started it, so requests
+   * running concurrently against the same configuration each see their own
+   * numbering. Two concurrent requests may therefore give the same number to
+   * different documents, but no transform ever sees a document built by
+   * another request, and document numbers only need to be unique within a
+   * transform.
+   *
+   * @param configuration The configuration
+   *
+   * @return A numbering scope that must be closed when the transform completes
+   */
+
+  public static Scope openScope(
+    final Configuration configuration)
+  {
+    return openScope(configuration, 0L);
+  }
+
+  /**
+   * Open a numbering scope as with {@link #openScope(Configuration)}, but
+   * begin numbering documents at {@code first} rather than zero. This is
+   * used when a document has already been built in an earlier scope and
+   * must retain its number.
    *
-   * @param transformer The XSLT transformer
+   * @param configuration The configuration
+   * @param first         The first document number to allocate
+   *
+   * @return A numbering scope that must be closed when the transform completes
    */
 
-  public static void fixDocumentNumber(
-    final XsltTransformer transformer)
+  public static Scope openScope(
+    final Configuration configuration,
+    final long first)
   {
-    final var numberAllocator =
-      new DocumentNumberAllocator();
+    if (first < 0L || first >= UNSCOPED_FIRST) {
+      throw new IllegalArgumentException(
+        "Document number %d is outside of the scoped range.".formatted(first)
+      );
+    }
+
+    final var allocator = configuration.getDocumentNumberAllocator();
+    if (allocator instanceof ScopedAllocator scoped) {
+      return scoped.open(first);
+    }
+    throw new IllegalStateException(
+      "The configuration does not have a scoped document number allocator installed."
+    );
+  }
+
+  /**
+   * A request-local document numbering scope. A scope must be closed on the
+   * thread that opened it.
+   */
+
+  public static final class Scope implements AutoCloseable
+  {
+    private final ScopedAllocator allocator;
+    private final AtomicLong previous;
+
+    private Scope(
+      final ScopedAllocator inAllocator,
+      final AtomicLong inPrevious)
+    {
+      this.allocator = inAllocator;
+      this.previous = inPrevious;
+    }
+
+    @Override
+    public void close()
+    {
+      this.allocator.restore(this.previous);
+    }
+  }
+
+  private static final class ScopedAllocator extends DocumentNumberAllocator
+  {
+    private final AtomicLong unscoped;
+    private final ThreadLocal<AtomicLong> scope;
+
+    ScopedAllocator()
+    {
+      this.unscoped = new AtomicLong(UNSCOPED_FIRST);
+      this.scope = new ThreadLocal<>();
+    }
+
+    Scope open(
+      final long first)
+    {
+      final var previous = this.scope.get();
+      this.scope.set(new AtomicLong(first));
+      return new Scope(this, previous);
+    }
+
+    void restore(
+      final AtomicLong previous)
+    {
+      if (previous == null) {
+        this.scope.remove();
+      } else {
+        this.scope.set(previous);
+      }
+    }
 
-    transformer.getUnderlyingController()
-      .getConfiguration()
-      .setDocumentNumberAllocator(numberAllocator);
+    @Override
+    public long allocateDocumentNumber()
+    {
+      final var current = this.scope.get();
+      if (current != null) {
+        return current.getAndIncrement();
+      }
+      return this.unscoped.getAndIncrement();
+    }
   }
 }
@@ -0,0 +1,850 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xstructural.vanilla.internal;
+
+import org.apache.commons.compress.archivers.zip.ScatterZipOutputStream;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntryRequest;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.parallel.InputStreamSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * <p>A writer for EPUB archives.</p>
+ *
+ * <p>When the writer is given a single thread, entries are compressed
+ * directly into the archive as they are added. When the writer is given more
+ * than one thread, entries are compressed concurrently into temporary
+ * scatter streams, and then copied, still compressed, into the archive in the
+ * order in which they were added. Because each entry is compressed
+ * independently with the same settings, and entries are always written in
+ * the order in which they were added, the resulting archive is
+ * byte-for-byte identical regardless of the number of threads.</p>
+ *
+ * <p>The archive is written to a temporary file, and only replaces the
+ * output file when {@link #finish()} completes. A failure at any point
+ * before that leaves any existing output file untouched.</p>
+ *
+ * <p>If the writer is permitted to reuse a previous version of the archive,
+ * the SHA-256 digest of the uncompressed data of each entry is recorded in a
+ * manifest alongside the archive (the archive name with a {@code .sha256}
+ * suffix, in the format used by {@code sha256sum}). On the next build, each
+ * entry that has a recorded digest and the same compression method is read
+ * into memory once and digested; if the digest matches, the previously
+ * compressed data is copied into the new archive as-is, without being
+ * decompressed or compressed again, and otherwise the data already in
+ * memory is compressed. Entries without a recorded digest are digested as
+ * they are compressed. The manifest is removed before the archive is
+ * replaced, and written again afterwards, so that it can never describe a
+ * different archive.</p>
+ */
+
+public final class XSEPUBArchiveWriter implements Closeable
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XSEPUBArchiveWriter.class);
+
+  private static final FileTime ZIP_FILE_TIME =
+    FileTime.from(Instant.parse("2000-01-01T00:00:00Z"));
+  private static final byte[] EMPTY_EXTRA =
+    new byte[0];
+  private static final String DIGEST_SEPARATOR =
+    "  ";
+
+  private final Path file;
+  private final Path manifestFile;
+  private final Path outputFile;
+  private final ZipArchiveOutputStream output;
+  private final ExecutorService executor;
+  private final Path temporaryDirectory;
+  private final ArrayList<Future<PreparedEntryType>> pending;
+  private final boolean reuse;
+  private final Map<String, String> previousDigests;
+  private final Map<String, String> digests;
+  private ZipFile previous;
+  private boolean deferred;
+
+  private XSEPUBArchiveWriter(
+    final Path inFile,
+    final Path inOutputFile,
+    final ZipArchiveOutputStream inOutput,
+    final ExecutorService inExecutor,
+    final Path inTemporaryDirectory,
+    final boolean inReuse,
+    final ZipFile inPrevious,
+    final Map<String, String> inPreviousDigests)
+  {
+    this.file =
+      Objects.requireNonNull(inFile, "file");
+    this.manifestFile =
+      manifestFileOf(inFile);
+    this.outputFile =
+      Objects.requireNonNull(inOutputFile, "outputFile");
+    this.output =
+      Objects.requireNonNull(inOutput, "output");
+    this.executor =
+      inExecutor;
+    this.temporaryDirectory =
+      Objects.requireNonNull(inTemporaryDirectory, "temporaryDirectory");
+    this.pending =
+      new ArrayList<>();
+    this.reuse =
+      inReuse;
+    this.previous =
+      inPrevious;
+    this.previousDigests =
+      Objects.requireNonNull(inPreviousDigests, "previousDigests");
+    this.digests =
+      new LinkedHashMap<>();
+  }
+
+  /**
+   * Create a new archive writer.
+   *
+   * @param file    The output file
+   * @param threads The number of threads used to compress entries
+   * @param reuse   {@code true} if unchanged entries may be copied from the
+   *                existing output file, if there is one
+   *
+   * @return A new archive writer
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static XSEPUBArchiveWriter create(
+    final Path file,
+    final int threads,
+    final boolean reuse)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Thread count %d must be at least 1",
+          Integer.valueOf(threads))
+      );
+    }
+
+    final var absoluteFile =
+      file.toAbsolutePath();
+    final var temporaryDirectory =
+      Files.createTempDirectory(absoluteFile.getParent(), "epub-");
+
+    /*
+     * Nothing opened below is owned by a writer until the writer has been
+     * constructed, so a failure at any point must release the previous
+     * archive and the output stream, and delete the temporary directory.
+     */
+
+    ZipFile previous = null;
+    ZipArchiveOutputStream output = null;
+    try {
+      /*
+       * The previous archive is read in place. The new archive is written to
+       * a temporary file in the same directory, so a failed build cannot
+       * damage the previous archive.
+       */
+
+      Map<String, String> previousDigests = Map.of();
+      if (reuse && Files.isRegularFile(absoluteFile)) {
+        previousDigests = readManifest(manifestFileOf(absoluteFile));
+        if (!previousDigests.isEmpty()) {
+          try {
+            previous = ZipFile.builder()
+              .setPath(absoluteFile)
+              .get();
+            LOG.debug("reusing unchanged entries of {}", absoluteFile);
+          } catch (final IOException e) {
+            LOG.warn("unable to read previous archive {}: ", absoluteFile, e);
+            previousDigests = Map.of();
+          }
+        }
+      }
+
+      /*
+       * The archive is written to a seekable file so that the sizes and CRCs
+       * of entries can be filled in after the data of each entry has been
+       * written. Each input is therefore read exactly once.
+       */
+
+      final var outputFile =
+        temporaryDirectory.resolve("output.epub");
+      output =
+        new ZipArchiveOutputStream(outputFile);
+
+      /*
+       * Entries compressed directly into the archive have unknown sizes when
+       * their headers are written. Zip64 extensions would otherwise be
+       * reserved for them, making the archive differ from one produced from
+       * scatter streams. EPUB entries are never large enough to require
+       * Zip64.
+       */
+
+      output.setUseZip64(Zip64Mode.Never);
+      final ExecutorService executor;
+      if (threads > 1) {
+        executor = XSExecutors.newFixedThreadPool("epub-compressor", threads);
+      } else {
+        executor = null;
+      }
+      return new XSEPUBArchiveWriter(
+        absoluteFile,
+        outputFile,
+        output,
+        executor,
+        temporaryDirectory,
+        reuse,
+        previous,
+        previousDigests
+      );
+    } catch (final IOException | RuntimeException e) {
+      closeQuietly(output, e);
+      closeQuietly(previous, e);
+      try {
+        deleteTemporaryDirectory(temporaryDirectory);
+      } catch (final IOException ex) {
+        e.addSuppressed(ex);
+      }
+      throw e;
+    }
+  }
+
+  private static void closeQuietly(
+    final Closeable closeable,
+    final Exception cause)
+  {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (final IOException e) {
+        cause.addSuppressed(e);
+      }
+    }
+  }
+
+  private static void deleteTemporaryDirectory(
+    final Path directory)
+    throws IOException
+  {
+    try (var stream = Files.list(directory)) {
+      for (final var f : stream.collect(Collectors.toList())) {
+        Files.deleteIfExists(f);
+      }
+    }
+    Files.deleteIfExists(directory);
+  }
+
+  private static Path manifestFileOf(
+    final Path file)
+  {
+    return file.resolveSibling(file.getFileName().toString() + ".sha256");
+  }
+
+  private static Map<String, String> readManifest(
+    final Path manifestFile)
+  {
+    if (!Files.isRegularFile(manifestFile)) {
+      LOG.debug("no digest manifest {}", manifestFile);
+      return Map.of();
+    }
+
+    final List<String> lines;
+    try {
+      lines = Files.readAllLines(manifestFile, UTF_8);
+    } catch (final IOException e) {
+      LOG.warn("unable to read digest manifest {}: ", manifestFile, e);
+      return Map.of();
+    }
+
+    final var results = new LinkedHashMap<String, String>();
+    for (final var line : lines) {
+      final var index = line.indexOf(DIGEST_SEPARATOR);
+      if (index <= 0) {
+        LOG.warn("ignoring malformed digest manifest {}", manifestFile);
+        return Map.of();
+      }
+      results.put(
+        line.substring(index + DIGEST_SEPARATOR.length()),
+        line.substring(0, index)
+      );
+    }
+    return results;
+  }
+
+  private static MessageDigest newDigest()
+  {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hexOf(
+    final MessageDigest digest)
+  {
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private static ZipArchiveEntry entry(
+    final String name,
+    final int method)
+  {
+    final var entry = new ZipArchiveEntry(name);
+    entry.setMethod(method);
+    entry.setCreationTime(ZIP_FILE_TIME);
+    entry.setLastAccessTime(ZIP_FILE_TIME);
+    entry.setLastModifiedTime(ZIP_FILE_TIME);
+    entry.setExtra(EMPTY_EXTRA);
+    return entry;
+  }
+
+  /**
+   * Write an uncompressed entry. Stored entries are written immediately, and
+   * so must be added before any other entries; this is used for the EPUB
+   * {@code mimetype} entry, which must be the first entry in the archive.
+   *
+   * @param name The entry name
+   * @param data The entry data
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void addStored(
+    final String name,
+    final byte[] data)
+    throws IOException
+  {
+    Objects.requireNonNull(name, "name");
+    Objects.requireNonNull(data, "data");
+
+    if (this.deferred) {
+      throw new IllegalStateException(
+        "Stored entries must be added before any other entries."
+      );
+    }
+
+    final var crc = new CRC32();
+    crc.update(data);
+
+    final var entry = entry(name, ZipEntry.STORED);
+    entry.setSize(data.length);
+    entry.setCrc(crc.getValue());
+
+    // https://github.com/w3c/epubcheck/issues/562
+    for (final var f : entry.getExtraFields()) {
+      entry.removeExtraField(f.getHeaderId());
+    }
+
+    LOG.info("zip entry {}", name);
+    this.output.putArchiveEntry(entry);
+    this.output.write(data);
+    this.output.closeArchiveEntry();
+
+    final var digest = newDigest();
+    digest.update(data);
+    this.digests.put(name, hexOf(digest));
+  }
+
+  /**
+   * Add a compressed entry whose data is taken from the given file.
+   *
+   * @param name The entry name
+   * @param file The file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void addFile(
+    final String name,
+    final Path file)
+    throws IOException
+  {
+    this.addFile(name, file, ZipEntry.DEFLATED);
+  }
+
+  /**
+   * Add an entry whose data is taken from the given file. Unlike
+   * {@link #addStored(String, byte[])}, the entry is written in order with
+   * the other entries added by this method, regardless of the compression
+   * method.
+   *
+   * @param name   The entry name
+   * @param file   The file
+   * @param method The compression method ({@link ZipEntry#STORED} or
+   *               {@link ZipEntry#DEFLATED})
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void addFile(
+    final String name,
+    final Path file,
+    final int method)
+    throws IOException
+  {
+    Objects.requireNonNull(file, "file");
+
+    this.addDeferred(name, method, () -> {
+      try {
+        return Files.newInputStream(file);
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * Add a compressed entry whose data is taken from the given URL.
+   *
+   * @param name The entry name
+   * @param url  The URL
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void addURL(
+    final String name,
+    final URL url)
+    throws IOException
+  {
+    if (url == null) {
+      throw new IOException(String.format("URL for entry %s is null", name));
+    }
+
+    this.addDeferred(name, ZipEntry.DEFLATED, () -> {
+      try {
+        return url.openStream();
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * Add a compressed entry whose data is held in memory.
+   *
+   * @param name The entry name
+   * @param data The entry data
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void addBytes(
+    final String name,
+    final byte[] data)
+    throws IOException
+  {
+    Objects.requireNonNull(data, "data");
+
+    this.addDeferred(
+      name,
+      ZipEntry.DEFLATED,
+      () -> new ByteArrayInputStream(data)
+    );
+  }
+
+  /**
+   * Add an empty entry.
+   *
+   * @param name The entry name
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void addEmpty(
+    final String name)
+    throws IOException
+  {
+    this.addDeferred(name, ZipEntry.DEFLATED, InputStream::nullInputStream);
+  }
+
+  private void addDeferred(
+    final String name,
+    final int method,
+    final InputStreamSupplier supplier)
+    throws IOException
+  {
+    Objects.requireNonNull(name, "name");
+
+    LOG.info("zip entry {}", name);
+    this.deferred = true;
+
+    if (this.executor == null) {
+      final var source = this.open(name, method, supplier);
+      if (source.reused() != null) {
+        source.reused().writeTo(this.output);
+      } else {
+        this.writeDirect(name, method, source.supplier());
+      }
+      this.digests.put(name, hexOf(source.digest()));
+      return;
+    }
+
+    this.pending.add(
+      this.executor.submit(() -> this.prepare(name, method, supplier))
+    );
+  }
+
+  private void writeDirect(
+    final String name,
+    final int method,
+    final InputStreamSupplier supplier)
+    throws IOException
+  {
+    this.output.putArchiveEntry(entry(name, method));
+    try (var stream = supplier.get()) {
+      stream.transferTo(this.output);
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+    this.output.closeArchiveEntry();
+  }
+
+  private PreparedEntryType prepare(
+    final String name,
+    final int method,
+    final InputStreamSupplier supplier)
+    throws IOException
+  {
+    final var source = this.open(name, method, supplier);
+    if (source.reused() != null) {
+      return source.reused();
+    }
+
+    final var request =
+      ZipArchiveEntryRequest.createZipArchiveEntryRequest(
+        entry(name, method),
+        source.supplier()
+      );
+    final var scatter = this.compress(request);
+    return new Compressed(name, hexOf(source.digest()), scatter);
+  }
+
+  /**
+   * Open the data of an entry. If the previous archive has an entry of the
+   * same name and method with a recorded digest, the data is read into
+   * memory and digested immediately, and the previous entry is reused if
+   * the digests match. Otherwise, the returned supplier digests the data as
+   * it is read, and the digest is complete once the data has been consumed.
+   */
+
+  private Source open(
+    final String name,
+    final int method,
+    final InputStreamSupplier supplier)
+    throws IOException
+  {
+    final var digest = newDigest();
+    final var previousDigest = this.previousDigests.get(name);
+    final var existing =
+      previousDigest != null ? this.previous.getEntry(name) : null;
+
+    if (existing == null || existing.getMethod() != method) {
+      return new Source(
+        () -> new DigestInputStream(supplier.get(), digest),
+        digest,
+        null
+      );
+    }
+
+    final byte[] data;
+    try (var stream = supplier.get()) {
+      data = stream.readAllBytes();
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    digest.update(data);
+    final var digestCopy = cloneOf(digest);
+    if (!previousDigest.equals(hexOf(digestCopy))) {
+      return new Source(() -> new ByteArrayInputStream(data), digest, null);
+    }
+
+    LOG.debug("zip entry {} is unchanged", name);
+    final var crc = new CRC32();
+    crc.update(data);
+
+    final var entry = entry(name, method);
+    entry.setSize(data.length);
+    entry.setCrc(crc.getValue());
+    entry.setCompressedSize(existing.getCompressedSize());
+    return new Source(
+      null,
+      digest,
+      new Reused(previousDigest, this.previous, existing, entry)
+    );
+  }
+
+  private static MessageDigest cloneOf(
+    final MessageDigest digest)
+  {
+    try {
+      return (MessageDigest) digest.clone();
+    } catch (final CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private ScatterZipOutputStream compress(
+    final ZipArchiveEntryRequest request)
+    throws IOException
+  {
+    final var scatterFile =
+      Files.createTempFile(this.temporaryDirectory, "entry-", ".tmp");
+    final var scatter =
+      ScatterZipOutputStream.pathBased(scatterFile);
+
+    try {
+      scatter.addArchiveEntry(request);
+      return scatter;
+    } catch (final UncheckedIOException e) {
+      scatter.close();
+      throw e.getCause();
+    } catch (final IOException | RuntimeException e) {
+      scatter.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Write all pending entries, in the order in which they were added, finish
+   * the archive, and replace the output file with it.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void finish()
+    throws IOException
+  {
+    for (int index = 0; index < this.pending.size(); ++index) {
+      final var future = this.pending.get(index);
+      try (var prepared = await(future)) {
+        prepared.writeTo(this.output);
+        this.digests.put(prepared.name(), prepared.digest());
+      }
+      this.pending.set(index, null);
+    }
+    this.pending.clear();
+
+    this.output.finish();
+    this.output.close();
+
+    if (this.previous != null) {
+      this.previous.close();
+      this.previous = null;
+    }
+
+    Files.deleteIfExists(this.manifestFile);
+    replace(this.outputFile, this.file);
+
+    if (this.reuse) {
+      final var manifestTemporary =
+        this.temporaryDirectory.resolve("output.sha256");
+      Files.write(
+        manifestTemporary,
+        this.digests.entrySet()
+          .stream()
+          .map(e -> e.getValue() + DIGEST_SEPARATOR + e.getKey())
+          .collect(Collectors.toList()),
+        UTF_8
+      );
+      replace(manifestTemporary, this.manifestFile);
+    }
+  }
+
+  private static void replace(
+    final Path source,
+    final Path target)
+    throws IOException
+  {
+    try {
+      Files.move(source, target, REPLACE_EXISTING, ATOMIC_MOVE);
+    } catch (final AtomicMoveNotSupportedException e) {
+      Files.move(source, target, REPLACE_EXISTING);
+    }
+  }
+
+  private static PreparedEntryType await(
+    final Future<PreparedEntryType> future)
+    throws IOException
+  {
+    try {
+      return future.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (final ExecutionException e) {
+      final var cause = e.getCause();
+      if (cause instanceof IOException ex) {
+        throw ex;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    try {
+      if (this.executor != null) {
+        this.executor.shutdown();
+        for (final var future : this.pending) {
+          if (future != null) {
+            try {
+              await(future).close();
+            } catch (final IOException e) {
+              LOG.debug("discarding failed entry: ", e);
+            }
+          }
+        }
+      }
+      this.output.close();
+      if (this.previous != null) {
+        this.previous.close();
+      }
+    } finally {
+      deleteTemporaryDirectory(this.temporaryDirectory);
+    }
+  }
+
+  private interface PreparedEntryType extends Closeable
+  {
+    String name();
+
+    String digest();
+
+    void writeTo(ZipArchiveOutputStream output)
+      throws IOException;
+  }
+
+  private record Source(
+    InputStreamSupplier supplier,
+    MessageDigest digest,
+    Reused reused)
+  {
+    private Source
+    {
+      Objects.requireNonNull(digest, "digest");
+    }
+  }
+
+  private record Compressed(
+    String name,
+    String digest,
+    ScatterZipOutputStream scatter)
+    implements PreparedEntryType
+  {
+    private Compressed
+    {
+      Objects.requireNonNull(name, "name");
+      Objects.requireNonNull(digest, "digest");
+      Objects.requireNonNull(scatter, "scatter");
+    }
+
+    @Override
+    public void writeTo(
+      final ZipArchiveOutputStream output)
+      throws IOException
+    {
+      this.scatter.writeTo(output);
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      this.scatter.close();
+    }
+  }
+
+  private record Reused(
+    String digest,
+    ZipFile archive,
+    ZipArchiveEntry existing,
+    ZipArchiveEntry entry)
+    implements PreparedEntryType
+  {
+    private Reused
+    {
+      Objects.requireNonNull(digest, "digest");
+      Objects.requireNonNull(archive, "archive");
+      Objects.requireNonNull(existing, "existing");
+      Objects.requireNonNull(entry, "entry");
+    }
+
+    @Override
+    public String name()
+    {
+      return this.entry.getName();
+    }
+
+    @Override
+    public void writeTo(
+      final ZipArchiveOutputStream output)
+      throws IOException
+    {
+      try (var raw = this.archive.getRawInputStream(this.existing)) {
+        output.addRawArchiveEntry(this.entry, raw);
+      }
+    }
+
+    @Override
+    public void close()
+    {
+
+    }
+  }
+}
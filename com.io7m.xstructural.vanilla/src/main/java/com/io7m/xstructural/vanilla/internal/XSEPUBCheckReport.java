@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xstructural.vanilla.internal;
+
+import com.adobe.epubcheck.api.EPUBLocation;
+import com.adobe.epubcheck.api.EpubCheck;
+import com.adobe.epubcheck.api.MasterReport;
+import com.adobe.epubcheck.messages.Message;
+import com.adobe.epubcheck.util.FeatureEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * <p>An epubcheck report that logs messages as they arrive.</p>
+ *
+ * <p>Each validation uses its own report, so any number of EPUB files may be
+ * checked concurrently in the same JVM.</p>
+ */
+
+public final class XSEPUBCheckReport extends MasterReport
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XSEPUBCheckReport.class);
+
+  private int errors;
+  private int warnings;
+
+  /**
+   * An epubcheck report that logs messages as they arrive.
+   *
+   * @param fileName The name of the EPUB file being checked
+   */
+
+  public XSEPUBCheckReport(
+    final String fileName)
+  {
+    this.setEpubFileName(Objects.requireNonNull(fileName, "fileName"));
+  }
+
+  /**
+   * Check the given EPUB file with epubcheck.
+   *
+   * @param file The EPUB file
+   *
+   * @return The completed report
+   */
+
+  public static XSEPUBCheckReport check(
+    final Path file)
+  {
+    Objects.requireNonNull(file, "file");
+
+    final var report =
+      new XSEPUBCheckReport(file.getFileName().toString());
+
+    new EpubCheck(file.toFile(), report).validate();
+
+    LOG.info(
+      "epubcheck: {} errors, {} warnings",
+      Integer.valueOf(report.errors()),
+      Integer.valueOf(report.warnings())
+    );
+    return report;
+  }
+
+  private static Level levelOf(
+    final Message message)
+  {
+    return switch (message.getSeverity()) {
+      case FATAL, ERROR -> Level.ERROR;
+      case WARNING -> Level.WARN;
+      case INFO -> Level.INFO;
+      default -> Level.DEBUG;
+    };
+  }
+
+  @Override
+  public void message(
+    final Message message,
+    final EPUBLocation location,
+    final Object... args)
+  {
+    switch (message.getSeverity()) {
+      case SUPPRESSED -> {
+        return;
+      }
+      case FATAL, ERROR -> {
+        ++this.errors;
+      }
+      case WARNING -> {
+        ++this.warnings;
+      }
+      default -> {
+
+      }
+    }
+
+    LOG.atLevel(levelOf(message))
+      .log(
+        "epubcheck: {}:{}:{}: {}: {}",
+        location.getPath(),
+        Integer.valueOf(location.getLine()),
+        Integer.valueOf(location.getColumn()),
+        message.getID(),
+        message.getMessage(args)
+      );
+  }
+
+  @Override
+  public void info(
+    final String resource,
+    final FeatureEnum feature,
+    final String value)
+  {
+    LOG.trace("epubcheck: {}: {}: {}", resource, feature, value);
+  }
+
+  @Override
+  public int generate()
+  {
+    return 0;
+  }
+
+  @Override
+  public void initialize()
+  {
+
+  }
+
+  /**
+   * @return The number of errors (including fatal errors) reported so far
+   */
+
+  public int errors()
+  {
+    return this.errors;
+  }
+
+  /**
+   * @return The number of warnings reported so far
+   */
+
+  public int warnings()
+  {
+    return this.warnings;
+  }
+
+  /**
+   * Fail if the report contains any errors. Warnings are logged but are
+   * not considered to be failures.
+   *
+   * @throws IOException If any errors were reported
+   */
+
+  public void requireNoErrors()
+    throws IOException
+  {
+    if (this.errors > 0) {
+      throw new IOException(
+        String.format(
+          "EPUB checker reported %d errors",
+          Integer.valueOf(this.errors)
+        )
+      );
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xstructural.vanilla.internal;
+
+import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+
+/**
+ * <p>A policy that selects the compression method of EPUB entries.</p>
+ *
+ * <p>Media types are detected from entry names in the same manner as the
+ * {@code mimeOf} extension function, so the method chosen for an entry is
+ * consistent with the media type declared for it in the package file.</p>
+ */
+
+public final class XSEPUBCompressionPolicy
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XSEPUBCompressionPolicy.class);
+
+  private final Tika tika;
+  private final Set<String> storedMediaTypes;
+
+  /**
+   * A policy that selects the compression method of EPUB entries.
+   *
+   * @param inStoredMediaTypes The media types of entries that are stored
+   *                           without compression
+   */
+
+  public XSEPUBCompressionPolicy(
+    final Set<String> inStoredMediaTypes)
+  {
+    this.storedMediaTypes =
+      Set.copyOf(Objects.requireNonNull(inStoredMediaTypes, "storedMediaTypes"));
+    this.tika =
+      new Tika();
+  }
+
+  /**
+   * Select a compression method for the named entry.
+   *
+   * @param name The entry name
+   *
+   * @return {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+   */
+
+  public int methodFor(
+    final String name)
+  {
+    final var detected = this.tika.detect(name);
+    if (this.storedMediaTypes.contains(detected)) {
+      LOG.debug("entry {} ({}) will be stored", name, detected);
+      return ZipEntry.STORED;
+    }
+    return ZipEntry.DEFLATED;
+  }
+}
@@ -16,32 +16,20 @@
 
 package com.io7m.xstructural.vanilla.internal;
 
-import com.adobe.epubcheck.tool.EpubChecker;
 import com.io7m.xstructural.api.XSProcessorException;
 import com.io7m.xstructural.api.XSProcessorRequest;
 import com.io7m.xstructural.api.XSProcessorType;
-import com.io7m.xstructural.api.XSTransformException;
 import com.io7m.xstructural.xml.SXMLResources;
-import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
-import org.apache.commons.io.input.CountingInputStream;
-import org.apache.commons.io.output.NullOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintStream;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.attribute.FileTime;
-import java.time.Instant;
+import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
-import java.util.zip.CRC32;
-import java.util.zip.ZipEntry;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
@@ -58,44 +46,57 @@ public final class XSEPUBCreator implements XSProcessorType
   private static final Logger LOG =
     LoggerFactory.getLogger(XSEPUBCreator.class);
 
-  private static final FileTime ZIP_FILE_TIME =
-    FileTime.from(Instant.parse("2000-01-01T00:00:00Z"));
-  private static final byte[] EMPTY_EXTRA =
-    new byte[0];
+  private static final String MIMETYPE =
+    "application/epub+zip";
+
+  /**
+   * The name of the package file among the result documents. The transform
+   * writes the package file into the intermediate "epub" directory.
+   */
+
+  private static final String CONTENT_OPF =
+    "epub/content.opf";
 
   private final SXMLResources resources;
   private final XSProcessorRequest request;
   private final Path epubDirectory;
   private final Path metaDirectory;
-  private final XSEPUBPackageCreator epubPackageCreator;
   private final Path oebpsDirectory;
   private final Path epubFile;
+  private final XSResultDocuments results;
+  private final XSEPUBCompressionPolicy compression;
 
   /**
    * An EPUB creator.
    *
    * @param inResources The SXML resources
-   * @param inRequest   The processor request
+   * @param inSource    The source document of the processor request
+   * @param inResults   The result documents of the processor request
    */
 
   public XSEPUBCreator(
     final SXMLResources inResources,
-    final XSProcessorRequest inRequest)
+    final XSSourceDocument inSource,
+    final XSResultDocuments inResults)
   {
+    Objects.requireNonNull(inSource, "source");
+
     this.resources =
       Objects.requireNonNull(inResources, "resources");
     this.request =
-      Objects.requireNonNull(inRequest, "request");
+      inSource.request();
+    this.results =
+      Objects.requireNonNull(inResults, "results");
+    this.compression =
+      new XSEPUBCompressionPolicy(this.request.epubStoredMediaTypes());
     this.epubFile =
-      this.request.outputDirectory().resolve(outputName(inRequest));
+      this.request.outputDirectory().resolve(outputName(this.request));
     this.epubDirectory =
       this.request.outputDirectory().resolve("epub");
     this.metaDirectory =
       this.epubDirectory.resolve("META-INF");
     this.oebpsDirectory =
       this.epubDirectory.resolve("OEBPS");
-    this.epubPackageCreator =
-      new XSEPUBPackageCreator(this.resources, this.request);
   }
 
   private static String outputName(
@@ -105,9 +106,8 @@ public final class XSEPUBCreator implements XSProcessorType
       .orElse("output.epub");
   }
 
-  private static InputStream resource(
+  private static URL resource(
     final String name)
-    throws IOException
   {
     final var path =
       String.format("/com/io7m/xstructural/vanilla/internal/%s", name);
@@ -120,131 +120,7 @@ public final class XSEPUBCreator implements XSProcessorType
       );
     }
 
-    return url.openStream();
-  }
-
-  private static void createEPUBWriteEmpty(
-    final ZipArchiveOutputStream zipOut,
-    final String directory,
-    final String file)
-    throws IOException
-  {
-    final var entry =
-      new ZipArchiveEntry(String.format("%s/%s", directory, file));
-
-    LOG.info("zip entry {}", entry.getName());
-
-    entry.setCreationTime(ZIP_FILE_TIME);
-    entry.setLastAccessTime(ZIP_FILE_TIME);
-    entry.setLastModifiedTime(ZIP_FILE_TIME);
-    entry.setSize(0L);
-    entry.setCrc(0);
-    entry.setExtra(EMPTY_EXTRA);
-
-    zipOut.putArchiveEntry(entry);
-    zipOut.closeArchiveEntry();
-  }
-
-  private static void createEPUBCopyFileResource(
-    final ZipArchiveOutputStream zipOut,
-    final String directory,
-    final String name,
-    final URL url)
-    throws IOException
-  {
-    final var entry =
-      new ZipArchiveEntry(String.format("%s/%s", directory, name));
-
-    if (url == null) {
-      throw new IOException(String.format("URL for entry %s is null", entry));
-    }
-
-    LOG.info("zip entry {}", entry.getName());
-
-    entry.setCreationTime(ZIP_FILE_TIME);
-    entry.setLastAccessTime(ZIP_FILE_TIME);
-    entry.setLastModifiedTime(ZIP_FILE_TIME);
-    entry.setSize(countURLSize(url));
-    entry.setCrc(crcOfURL(url));
-    entry.setExtra(EMPTY_EXTRA);
-
-    zipOut.putArchiveEntry(entry);
-
-    try (var stream = url.openStream()) {
-      stream.transferTo(zipOut);
-    }
-
-    zipOut.closeArchiveEntry();
-  }
-
-  private static long countURLSize(
-    final URL url)
-    throws IOException
-  {
-    try (var countingStream = new CountingInputStream(url.openStream())) {
-      countingStream.transferTo(NullOutputStream.nullOutputStream());
-      return countingStream.getByteCount();
-    }
-  }
-
-  private static void createEPUBCopyFile(
-    final ZipArchiveOutputStream zipOut,
-    final String directory,
-    final Path file)
-    throws IOException
-  {
-    final var entry =
-      new ZipArchiveEntry(
-        String.format("%s/%s", directory, file.getFileName().toString()));
-
-    LOG.info("zip entry {}", entry.getName());
-
-    entry.setCreationTime(ZIP_FILE_TIME);
-    entry.setLastAccessTime(ZIP_FILE_TIME);
-    entry.setLastModifiedTime(ZIP_FILE_TIME);
-    entry.setSize(Files.size(file));
-    entry.setCrc(crcOf(file));
-    entry.setExtra(EMPTY_EXTRA);
-
-    zipOut.putArchiveEntry(entry);
-    Files.copy(file, zipOut);
-    zipOut.closeArchiveEntry();
-  }
-
-  private static long crcOf(
-    final Path source)
-    throws IOException
-  {
-    try (var stream = Files.newInputStream(source)) {
-      return crcOfStream(stream);
-    }
-  }
-
-  private static long crcOfStream(
-    final InputStream stream)
-    throws IOException
-  {
-    final var crc = new CRC32();
-    final var buffer = new byte[8192];
-    try (var input = stream) {
-      while (true) {
-        final var r = input.read(buffer);
-        if (r <= 0) {
-          break;
-        }
-        crc.update(buffer, 0, r);
-      }
-    }
-    return crc.getValue();
-  }
-
-  private static long crcOfURL(
-    final URL url)
-    throws IOException
-  {
-    try (var stream = url.openStream()) {
-      return crcOfStream(stream);
-    }
+    return url;
   }
 
   @Override
@@ -252,12 +128,9 @@ public final class XSEPUBCreator implements XSProcessorType
     throws XSProcessorException
   {
     try {
-      this.createDirectories();
-
-      this.writeMimetypeFile();
-      this.writeContainerFile();
-      this.writePackageFile();
-      this.copyOEBPS();
+      if (this.request.epubWriteIntermediateFiles()) {
+        this.writeIntermediateFiles();
+      }
       this.createEPUB();
       this.checkEPUB();
 
@@ -269,102 +142,54 @@ public final class XSEPUBCreator implements XSProcessorType
   private void checkEPUB()
     throws IOException
   {
-    final var outStream = new ByteArrayOutputStream();
-    final var errStream = new ByteArrayOutputStream();
-
-    LOG.info("validating {}", this.epubFile);
-
-    try (var out = new PrintStream(outStream, true, UTF_8)) {
-      try (var err = new PrintStream(errStream, true, UTF_8)) {
-
-        final var oldOut = System.out;
-        final var oldErr = System.err;
-
-        final int result;
-        try {
-          System.setOut(out);
-          System.setErr(err);
-
-          final var checker = new EpubChecker();
-          result = checker.run(new String[]{
-            this.epubFile.toString(),
-          });
-        } finally {
-          System.setOut(oldOut);
-          System.setErr(oldErr);
-        }
-
-        {
-          final var lines =
-            outStream.toString(UTF_8)
-              .lines()
-              .collect(Collectors.toList());
-
-          for (final var line : lines) {
-            LOG.info("epubcheck: stdout: {}", line);
-          }
-        }
+    switch (this.request.epubCheck()) {
+      case EPUBCHECK -> this.checkEPUBWithEpubcheck();
+      case STRUCTURAL -> this.checkEPUBStructure();
+    }
+  }
 
-        {
-          final var lines =
-            errStream.toString(UTF_8)
-              .lines()
-              .collect(Collectors.toList());
+  private void checkEPUBStructure()
+    throws IOException
+  {
+    LOG.info("checking structure of {}", this.epubFile);
+
+    final var errors = XSEPUBStructuralChecker.check(this.epubFile);
+    if (!errors.isEmpty()) {
+      throw new IOException(
+        String.format(
+          "EPUB structural check reported %d errors",
+          Integer.valueOf(errors.size())
+        )
+      );
+    }
+  }
 
-          for (final var line : lines) {
-            LOG.info("epubcheck: stderr: {}", line);
-          }
-        }
+  private void checkEPUBWithEpubcheck()
+    throws IOException
+  {
+    LOG.info("validating {}", this.epubFile);
 
-        if (result != 0) {
-          LOG.error(
-            "EPUB checker returned a non-zero exit code: {}",
-            Integer.valueOf(result)
-          );
-          throw new IOException(
-            String.format(
-              "EPUB checker returned a non-zero exit code: %d",
-              Integer.valueOf(result)
-            )
-          );
-        }
-      }
-    }
+    XSEPUBCheckReport.check(this.epubFile).requireNoErrors();
   }
 
   private void createEPUB()
     throws IOException
   {
-    try (var zipOut = new ZipArchiveOutputStream(Files.newOutputStream(this.epubFile))) {
-      this.createEPUBWriteMime(zipOut);
-      this.createEPUBWritePackage(zipOut);
-
-      try (var stream = Files.list(this.metaDirectory)) {
-        final var files = stream.collect(Collectors.toList());
-        for (final var file : files) {
-          createEPUBCopyFile(zipOut, "META-INF", file);
-        }
+    final var threads = this.request.epubCompressionThreads();
+    final var reuse = this.request.epubIncremental();
+    try (var writer =
+           XSEPUBArchiveWriter.create(this.epubFile, threads, reuse)) {
+      writer.addStored("mimetype", MIMETYPE.getBytes(UTF_8));
+      writer.addBytes("content.opf", this.resultBytes(CONTENT_OPF));
+      writer.addURL("META-INF/container.xml", resource("container.xml"));
+
+      for (final var name : this.oebpsNames()) {
+        writer.addBytes("OEBPS/" + name, this.resultBytes(name));
       }
 
-      try (var stream = Files.list(this.oebpsDirectory)) {
-        final var files = stream.collect(Collectors.toList());
-        for (final var file : files) {
-          createEPUBCopyFile(zipOut, "OEBPS", file);
-        }
-      }
-
-      createEPUBCopyFileResource(
-        zipOut,
-        "OEBPS",
-        "reset-epub.css",
-        this.resources.cssResetEPUB()
-      );
-      createEPUBCopyFileResource(
-        zipOut,
-        "OEBPS",
-        "structural-epub.css",
-        this.resources.cssStructuralEPUB()
-      );
+      writer.addURL("OEBPS/reset-epub.css", this.resources.cssResetEPUB());
+      writer.addURL(
+        "OEBPS/structural-epub.css", this.resources.cssStructuralEPUB());
 
       {
         final var documentCSSfile =
@@ -372,9 +197,9 @@ public final class XSEPUBCreator implements XSProcessorType
             .resolveSibling("document.css");
 
         if (Files.isRegularFile(documentCSSfile)) {
-          createEPUBCopyFile(zipOut, "OEBPS", documentCSSfile);
+          writer.addFile(entryName("OEBPS", documentCSSfile), documentCSSfile);
         } else {
-          createEPUBWriteEmpty(zipOut, "OEBPS", "document.css");
+          writer.addEmpty("OEBPS/document.css");
         }
       }
 
@@ -384,87 +209,67 @@ public final class XSEPUBCreator implements XSProcessorType
             .resolveSibling("document-epub.css");
 
         if (Files.isRegularFile(documentEpubCSSfile)) {
-          createEPUBCopyFile(zipOut, "OEBPS", documentEpubCSSfile);
+          writer.addFile(
+            entryName("OEBPS", documentEpubCSSfile), documentEpubCSSfile);
         } else {
-          createEPUBWriteEmpty(zipOut, "OEBPS", "document-epub.css");
+          writer.addEmpty("OEBPS/document-epub.css");
         }
       }
 
-      final var resourcesList =
-        this.request.outputDirectory()
-          .resolve("epub-resources.txt");
-
-      try (var resourcesStream = Files.lines(resourcesList)) {
-        final var resourceNames =
-          resourcesStream
-            .filter(p -> !p.isBlank())
-            .collect(Collectors.toList());
-
-        for (final var resourceName : resourceNames) {
-          final var resourceFile =
-            this.request.sourceFile()
-              .resolveSibling(resourceName);
-          createEPUBCopyFile(zipOut, "OEBPS", resourceFile);
-        }
+      final var resourceNames =
+        new String(this.resultBytes("epub-resources.txt"), UTF_8)
+          .lines()
+          .filter(p -> !p.isBlank())
+          .collect(Collectors.toList());
+
+      for (final var resourceName : resourceNames) {
+        final var resourceFile =
+          this.request.sourceFile()
+            .resolveSibling(resourceName);
+        final var entryName = entryName("OEBPS", resourceFile);
+        writer.addFile(
+          entryName,
+          resourceFile,
+          this.compression.methodFor(entryName)
+        );
       }
 
-      zipOut.finish();
-      zipOut.flush();
+      writer.finish();
     }
   }
 
-  private void createEPUBWriteMime(
-    final ZipArchiveOutputStream zipOut)
-    throws IOException
+  private static String entryName(
+    final String directory,
+    final Path file)
   {
-    final var source =
-      this.epubDirectory.resolve("mimetype");
-
-    final var entry =
-      new ZipArchiveEntry("mimetype");
-
-    LOG.info("zip entry {}", entry.getName());
-
-    entry.setMethod(ZipEntry.STORED);
-    entry.setCreationTime(ZIP_FILE_TIME);
-    entry.setLastAccessTime(ZIP_FILE_TIME);
-    entry.setLastModifiedTime(ZIP_FILE_TIME);
-    entry.setSize(Files.size(source));
-    entry.setCrc(crcOf(source));
-    entry.setExtra(EMPTY_EXTRA);
-
-    // https://github.com/w3c/epubcheck/issues/562
-    for (final var f : entry.getExtraFields()) {
-      entry.removeExtraField(f.getHeaderId());
-    }
-
-    zipOut.putArchiveEntry(entry);
-    Files.copy(source, zipOut);
-    zipOut.closeArchiveEntry();
+    return String.format("%s/%s", directory, file.getFileName().toString());
   }
 
-  private void createEPUBWritePackage(
-    final ZipArchiveOutputStream zipOut)
+  private byte[] resultBytes(
+    final String name)
     throws IOException
   {
-    final var source =
-      this.epubDirectory.resolve("content.opf");
-
-    final var entry =
-      new ZipArchiveEntry("content.opf");
-
-    LOG.info("zip entry {}", entry.getName());
+    return this.results.bytesOf(name)
+      .orElseThrow(() -> new IOException(
+        String.format("The transform did not produce %s", name)));
+  }
 
-    entry.setCreationTime(ZIP_FILE_TIME);
-    entry.setLastAccessTime(ZIP_FILE_TIME);
-    entry.setLastModifiedTime(ZIP_FILE_TIME);
-    entry.setSize(Files.size(source));
-    entry.setCrc(crcOf(source));
-    entry.setExtra(EMPTY_EXTRA);
+  private List<String> oebpsNames()
+  {
+    return this.results.names()
+      .stream()
+      .filter(XSEPUBCreator::isOEBPSCopyable)
+      .collect(Collectors.toList());
+  }
 
-    zipOut.putArchiveEntry(entry);
-    Files.copy(source, zipOut);
-    zipOut.closeArchiveEntry();
+  private void writeIntermediateFiles()
+    throws IOException
+  {
+    this.results.writeAll();
+    this.createDirectories();
+    this.writeMimetypeFile();
+    this.writeContainerFile();
+    this.copyOEBPS();
   }
 
   private void createDirectories()
@@ -478,39 +283,24 @@ public final class XSEPUBCreator implements XSProcessorType
   private void copyOEBPS()
     throws IOException
   {
-    try (var fileStream =
-           Files.list(this.request.outputDirectory())) {
-      final var xhtmlFiles =
-        fileStream.filter(XSEPUBCreator::isOEBPSCopyable)
-          .collect(Collectors.toList());
-
-      for (final var file : xhtmlFiles) {
-        final var outputFile =
-          this.oebpsDirectory.resolve(file.getFileName().toString());
-
-        LOG.info("copy {} {}", file, outputFile);
-        Files.copy(file, outputFile, REPLACE_EXISTING);
-      }
+    for (final var name : this.oebpsNames()) {
+      final var outputFile = this.oebpsDirectory.resolve(name);
+      LOG.info("write {}", outputFile);
+      Files.createDirectories(outputFile.getParent());
+      Files.write(outputFile, this.resultBytes(name));
     }
   }
 
   private static boolean isOEBPSCopyable(
-    final Path p)
+    final String pathText)
   {
-    final var pathText = p.toString();
     return pathText.endsWith(".xhtml") || pathText.endsWith(".ncx");
   }
 
-  private void writePackageFile()
-    throws XSTransformException
-  {
-    this.epubPackageCreator.execute();
-  }
-
   private void writeContainerFile()
     throws IOException
   {
-    try (var stream = resource("container.xml")) {
+    try (var stream = resource("container.xml").openStream()) {
       Files.copy(
         stream,
         this.metaDirectory.resolve("container.xml"),
@@ -524,7 +314,7 @@ public final class XSEPUBCreator implements XSProcessorType
   {
     Files.writeString(
       this.epubDirectory.resolve("mimetype"),
-      "application/epub+zip",
+      MIMETYPE,
       UTF_8,
       WRITE,
       CREATE,
@@ -0,0 +1,501 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xstructural.vanilla.internal;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <p>A fast structural check of the EPUB files produced by xstructural.</p>
+ *
+ * <p>The check does not attempt to replace epubcheck; it verifies only the
+ * properties of the archive that xstructural is responsible for:</p>
+ *
+ * <ul>
+ *   <li>The {@code mimetype} entry is the first entry, is stored without
+ *   compression, and has the correct content.</li>
+ *   <li>{@code META-INF/container.xml} is present and names a package file
+ *   that is present.</li>
+ *   <li>Every manifest item in the package file is present in the archive,
+ *   and every file in the archive is listed in the manifest.</li>
+ *   <li>Every spine item refers to a manifest item, no item appears in the
+ *   spine more than once, and the spine is in the same order as the
+ *   navigation points of the NCX table of contents.</li>
+ *   <li>No relative link in any content file refers to a file that is not
+ *   present, or to an element ID that does not exist in the target file.</li>
+ * </ul>
+ */
+
+public final class XSEPUBStructuralChecker
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XSEPUBStructuralChecker.class);
+
+  private static final String NS_CONTAINER =
+    "urn:oasis:names:tc:opendocument:xmlns:container";
+  private static final String NS_OPF =
+    "http://www.idpf.org/2007/opf";
+  private static final String NS_NCX =
+    "http://www.daisy.org/z3986/2005/ncx/";
+  private static final String MIMETYPE =
+    "application/epub+zip";
+
+  private final Path file;
+  private final ArrayList<String> errors;
+
+  private XSEPUBStructuralChecker(
+    final Path inFile)
+  {
+    this.file = Objects.requireNonNull(inFile, "file");
+    this.errors = new ArrayList<>();
+  }
+
+  /**
+   * Check the given EPUB file.
+   *
+   * @param file The EPUB file
+   *
+   * @return The errors encountered, in the order in which they were found
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static List<String> check(
+    final Path file)
+    throws IOException
+  {
+    final var checker = new XSEPUBStructuralChecker(file);
+    try (var zip = ZipFile.builder().setPath(file).get()) {
+      checker.checkArchive(zip);
+    } catch (final ParserConfigurationException e) {
+      throw new IOException(e);
+    }
+    return List.copyOf(checker.errors);
+  }
+
+  private void error(
+    final String format,
+    final Object... arguments)
+  {
+    final var message = String.format(format, arguments);
+    this.errors.add(message);
+    LOG.error("{}: {}", this.file, message);
+  }
+
+  private void checkArchive(
+    final ZipFile zip)
+    throws IOException, ParserConfigurationException
+  {
+    final var entries = new LinkedHashMap<String, ZipArchiveEntry>();
+    for (final var entry : Collections.list(zip.getEntriesInPhysicalOrder())) {
+      if (!entry.isDirectory()) {
+        entries.put(entry.getName(), entry);
+      }
+    }
+
+    this.checkMimetype(zip, entries);
+
+    final var opfName = this.checkContainer(zip, entries);
+    if (opfName.isEmpty()) {
+      return;
+    }
+
+    final var opf = this.parse(zip, entries.get(opfName.get()));
+    if (opf.isEmpty()) {
+      return;
+    }
+
+    final var manifest =
+      this.checkManifest(opfName.get(), opf.get(), entries);
+    final var spine =
+      this.checkSpine(opf.get(), manifest);
+
+    this.checkSpineOrder(zip, entries, manifest, spine);
+    this.checkLinks(zip, entries);
+  }
+
+  private void checkMimetype(
+    final ZipFile zip,
+    final Map<String, ZipArchiveEntry> entries)
+    throws IOException
+  {
+    final var first = entries.keySet().stream().findFirst();
+    if (first.isEmpty() || !Objects.equals(first.get(), "mimetype")) {
+      this.error("The first entry must be mimetype");
+      return;
+    }
+
+    final var entry = entries.get("mimetype");
+    if (entry.getMethod() != ZipEntry.STORED) {
+      this.error("The mimetype entry must be stored without compression");
+    }
+
+    try (var stream = zip.getInputStream(entry)) {
+      final var text = new String(stream.readAllBytes(), UTF_8);
+      if (!Objects.equals(text, MIMETYPE)) {
+        this.error("The mimetype entry must contain exactly %s", MIMETYPE);
+      }
+    }
+  }
+
+  private Optional<String> checkContainer(
+    final ZipFile zip,
+    final Map<String, ZipArchiveEntry> entries)
+    throws IOException, ParserConfigurationException
+  {
+    final var entry = entries.get("META-INF/container.xml");
+    if (entry == null) {
+      this.error("META-INF/container.xml is missing");
+      return Optional.empty();
+    }
+
+    final var container = this.parse(zip, entry);
+    if (container.isEmpty()) {
+      return Optional.empty();
+    }
+
+    final var rootFiles =
+      container.get().getElementsByTagNameNS(NS_CONTAINER, "rootfile");
+    if (rootFiles.getLength() == 0) {
+      this.error("META-INF/container.xml does not name a package file");
+      return Optional.empty();
+    }
+
+    final var path =
+      ((Element) rootFiles.item(0)).getAttribute("full-path");
+    if (!entries.containsKey(path)) {
+      this.error("The package file %s is missing", path);
+      return Optional.empty();
+    }
+    return Optional.of(path);
+  }
+
+  private Map<String, ManifestItem> checkManifest(
+    final String opfName,
+    final Document opf,
+    final Map<String, ZipArchiveEntry> entries)
+  {
+    final var items = new HashMap<String, ManifestItem>();
+    final var listed = new HashSet<String>();
+
+    final var elements = opf.getElementsByTagNameNS(NS_OPF, "item");
+    for (int index = 0; index < elements.getLength(); ++index) {
+      final var element = (Element) elements.item(index);
+      final var id = element.getAttribute("id");
+      final var href = element.getAttribute("href");
+
+      final var target = this.resolve(opfName, href);
+      if (target.isEmpty()) {
+        continue;
+      }
+
+      final var name = target.get().entry();
+      if (!entries.containsKey(name)) {
+        this.error("Manifest item %s refers to missing file %s", id, name);
+      }
+      if (items.put(id, new ManifestItem(id, name)) != null) {
+        this.error("Manifest item ID %s is not unique", id);
+      }
+      listed.add(name);
+    }
+
+    for (final var name : entries.keySet()) {
+      final var exempt =
+        Objects.equals(name, "mimetype")
+          || Objects.equals(name, opfName)
+          || name.startsWith("META-INF/");
+
+      if (!exempt && !listed.contains(name)) {
+        this.error("File %s is not listed in the manifest", name);
+      }
+    }
+    return items;
+  }
+
+  private List<ManifestItem> checkSpine(
+    final Document opf,
+    final Map<String, ManifestItem> manifest)
+  {
+    final var spine = new ArrayList<ManifestItem>();
+    final var seen = new HashSet<String>();
+
+    final var elements = opf.getElementsByTagNameNS(NS_OPF, "itemref");
+    for (int index = 0; index < elements.getLength(); ++index) {
+      final var element = (Element) elements.item(index);
+      final var idref = element.getAttribute("idref");
+
+      final var item = manifest.get(idref);
+      if (item == null) {
+        this.error("Spine item %s does not refer to a manifest item", idref);
+        continue;
+      }
+      if (!seen.add(idref)) {
+        this.error("Spine item %s appears more than once", idref);
+        continue;
+      }
+      spine.add(item);
+    }
+    return spine;
+  }
+
+  /**
+   * The navigation points of the NCX file are numbered in reading order.
+   * The files that they refer to must appear in the spine in that same order.
+   */
+
+  private void checkSpineOrder(
+    final ZipFile zip,
+    final Map<String, ZipArchiveEntry> entries,
+    final Map<String, ManifestItem> manifest,
+    final List<ManifestItem> spine)
+    throws IOException, ParserConfigurationException
+  {
+    final var ncxItem = manifest.get("ncx");
+    if (ncxItem == null || !entries.containsKey(ncxItem.entry())) {
+      return;
+    }
+
+    final var ncx = this.parse(zip, entries.get(ncxItem.entry()));
+    if (ncx.isEmpty()) {
+      return;
+    }
+
+    final var byOrder = new TreeMap<Integer, String>();
+    final var points = ncx.get().getElementsByTagNameNS(NS_NCX, "navPoint");
+    for (int index = 0; index < points.getLength(); ++index) {
+      final var point = (Element) points.item(index);
+      final var contents = point.getElementsByTagNameNS(NS_NCX, "content");
+      if (contents.getLength() == 0) {
+        continue;
+      }
+
+      final int order;
+      try {
+        order = Integer.parseInt(point.getAttribute("playOrder"));
+      } catch (final NumberFormatException e) {
+        this.error("NCX navPoint %s has an invalid playOrder",
+                   point.getAttribute("id"));
+        continue;
+      }
+
+      final var src = ((Element) contents.item(0)).getAttribute("src");
+      this.resolve(ncxItem.entry(), src)
+        .ifPresent(t -> byOrder.put(Integer.valueOf(order), t.entry()));
+    }
+
+    final var spinePositions = new HashMap<String, Integer>();
+    for (int index = 0; index < spine.size(); ++index) {
+      spinePositions.putIfAbsent(
+        spine.get(index).entry(),
+        Integer.valueOf(index)
+      );
+    }
+
+    var previous = -1;
+    var previousName = "";
+    for (final var name : byOrder.values()) {
+      final var position = spinePositions.get(name);
+      if (position == null) {
+        this.error(
+          "File %s is in the table of contents but not the spine",
+          name
+        );
+        continue;
+      }
+      if (position.intValue() < previous) {
+        this.error(
+          "File %s precedes %s in the spine, but follows it in the NCX",
+          name,
+          previousName
+        );
+      }
+      previous = Math.max(previous, position.intValue());
+      previousName = name;
+    }
+  }
+
+  private void checkLinks(
+    final ZipFile zip,
+    final Map<String, ZipArchiveEntry> entries)
+    throws IOException, ParserConfigurationException
+  {
+    final var parsers = SAXParserFactory.newInstance();
+    parsers.setNamespaceAware(true);
+    parsers.setValidating(false);
+
+    final var collected = new HashMap<String, XSXHTMLLinkCollector>();
+    for (final var name : entries.keySet()) {
+      if (!name.endsWith(".xhtml")) {
+        continue;
+      }
+
+      final var collector = new XSXHTMLLinkCollector();
+      try (var stream = zip.getInputStream(entries.get(name))) {
+        final var reader = parsers.newSAXParser().getXMLReader();
+        reader.setFeature(
+          "http://apache.org/xml/features/nonvalidating/load-external-dtd",
+          false);
+        reader.setEntityResolver((publicId, systemId) ->
+          new InputSource(new ByteArrayInputStream(new byte[0])));
+        reader.setContentHandler(collector);
+
+        final var source = new InputSource(stream);
+        source.setSystemId(name);
+        reader.parse(source);
+      } catch (final SAXException e) {
+        this.error("%s could not be parsed: %s", name, e.getMessage());
+        continue;
+      }
+      collected.put(name, collector);
+    }
+
+    var checked = 0;
+    for (final var sourceEntry : collected.entrySet()) {
+      final var name = sourceEntry.getKey();
+      for (final var reference : sourceEntry.getValue().references()) {
+        final var target = this.resolve(name, reference.href());
+        if (target.isEmpty()) {
+          continue;
+        }
+
+        ++checked;
+        final var targetName = target.get().entry();
+        if (!entries.containsKey(targetName)) {
+          this.error(
+            "%s:%d: link to missing file %s",
+            name,
+            Integer.valueOf(reference.line()),
+            reference.href()
+          );
+          continue;
+        }
+
+        final var fragment = target.get().fragment();
+        final var targetIds = collected.get(targetName);
+        if (fragment != null && !fragment.isEmpty() && targetIds != null
+          && !targetIds.ids().contains(fragment)) {
+          this.error(
+            "%s:%d: link to missing element %s",
+            name,
+            Integer.valueOf(reference.line()),
+            reference.href()
+          );
+        }
+      }
+    }
+
+    LOG.debug("checked {} links", Integer.valueOf(checked));
+  }
+
+  private Optional<Document> parse(
+    final ZipFile zip,
+    final ZipArchiveEntry entry)
+    throws IOException, ParserConfigurationException
+  {
+    final var documents = DocumentBuilderFactory.newInstance();
+    documents.setNamespaceAware(true);
+    documents.setValidating(false);
+    documents.setExpandEntityReferences(false);
+    documents.setFeature(
+      "http://apache.org/xml/features/disallow-doctype-decl",
+      true);
+
+    try (var stream = zip.getInputStream(entry)) {
+      return Optional.of(documents.newDocumentBuilder().parse(stream));
+    } catch (final SAXException e) {
+      this.error("%s could not be parsed: %s", entry.getName(), e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Resolve a link against the archive entry that contains it. Links to
+   * other locations (such as web pages) are not resolved.
+   */
+
+  private Optional<Target> resolve(
+    final String baseEntry,
+    final String href)
+  {
+    try {
+      final var uri = new URI(href);
+      if (uri.isAbsolute() || uri.getRawAuthority() != null) {
+        return Optional.empty();
+      }
+
+      final var base = new URI(null, null, "/" + baseEntry, null);
+      final var resolved = base.resolve(uri);
+      return Optional.of(new Target(
+        resolved.getPath().substring(1),
+        resolved.getFragment()
+      ));
+    } catch (final URISyntaxException e) {
+      this.error("%s: malformed link %s", baseEntry, href);
+      return Optional.empty();
+    }
+  }
+
+  private record ManifestItem(
+    String id,
+    String entry)
+  {
+    private ManifestItem
+    {
+      Objects.requireNonNull(id, "id");
+      Objects.requireNonNull(entry, "entry");
+    }
+  }
+
+  private record Target(
+    String entry,
+    String fragment)
+  {
+    private Target
+    {
+      Objects.requireNonNull(entry, "entry");
+    }
+  }
+}
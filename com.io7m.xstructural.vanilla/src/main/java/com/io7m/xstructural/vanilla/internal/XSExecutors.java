@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xstructural.vanilla.internal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Functions to create executors for internal use.
+ */
+
+public final class XSExecutors
+{
+  private XSExecutors()
+  {
+
+  }
+
+  /**
+   * Create a bounded pool of daemon threads. Threads are named
+   * {@code com.io7m.xstructural.<name>[<index>]}.
+   *
+   * @param name    The name of the pool
+   * @param threads The number of threads
+   *
+   * @return A new executor
+   */
+
+  public static ExecutorService newFixedThreadPool(
+    final String name,
+    final int threads)
+  {
+    final var threadIndex = new AtomicInteger(0);
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      final var thread = new Thread(runnable);
+      thread.setName(String.format(
+        "com.io7m.xstructural.%s[%d]",
+        name,
+        Integer.valueOf(threadIndex.getAndIncrement()))
+      );
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+}
@@ -21,18 +21,39 @@ import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.XdmNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
 
 import javax.xml.transform.SourceLocator;
 import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
- * A message listener.
+ * <p>A message listener.</p>
+ *
+ * <p>Messages are written to the message file by a background thread in
+ * batches, and the file is only flushed when a terminating message is
+ * received or when the listener is closed. Terminating messages are
+ * guaranteed to have reached the file, along with every message received
+ * before them, by the time {@link #message(XdmNode, QName, boolean,
+ * SourceLocator)} returns.</p>
+ *
+ * <p>If the background thread is interrupted, it writes any messages that
+ * are already queued and then stops. If the background thread stops for
+ * any reason, every subsequent message, flush, or close fails promptly
+ * rather than waiting for a thread that will never respond.</p>
  */
 
 public final class XSMessageListener implements MessageListener2, Closeable
@@ -40,14 +61,36 @@ public final class XSMessageListener implements MessageListener2, Closeable
   private static final Logger LOG =
     LoggerFactory.getLogger(XSMessageListener.class);
 
+  private static final int BATCH_SIZE = 256;
+  private static final long WRITER_CHECK_INTERVAL_MS = 100L;
+
   private final BufferedWriter stream;
+  private final LinkedBlockingQueue<EntryType> queue;
+  private final Thread writer;
+  private volatile IOException failure;
+  private boolean closed;
+
+  /**
+   * A message listener.
+   *
+   * @param path The message file
+   *
+   * @throws IOException On I/O errors
+   */
 
-  XSMessageListener(final Path path)
+  public XSMessageListener(
+    final Path path)
     throws IOException
   {
     this.stream = Files.newBufferedWriter(
       Objects.requireNonNull(path, "path")
     );
+    this.queue =
+      new LinkedBlockingQueue<>();
+    this.writer =
+      new Thread(this::run, "com.io7m.xstructural.messages");
+    this.writer.setDaemon(true);
+    this.writer.start();
   }
 
   @Override
@@ -57,29 +100,289 @@ public final class XSMessageListener implements MessageListener2, Closeable
     final boolean terminate,
     final SourceLocator locator)
   {
+    this.checkFailure();
+
+    final var message =
+      new Message(
+        locator.getSystemId(),
+        locator.getLineNumber(),
+        locator.getColumnNumber(),
+        errorCode.toString(),
+        content.getStringValue()
+      );
+
+    final var level = terminate ? Level.ERROR : Level.DEBUG;
+    if (LOG.isEnabledForLevel(level)) {
+      LOG.atLevel(level).log("XSLT: {}", message.format());
+    }
+
+    this.queue.add(message);
+    if (terminate) {
+      this.flush();
+    }
+  }
+
+  private void checkFailure()
+  {
+    final var failed = this.failure;
+    if (failed != null) {
+      throw new UncheckedIOException(failed);
+    }
+  }
+
+  private void flush()
+  {
+    final var flush = new Flush(new CompletableFuture<>());
+    this.queue.add(flush);
+
     try {
-      final var message =
-        String.format(
-          "%s:%d:%d: %s: %s",
-          locator.getSystemId(),
-          Integer.valueOf(locator.getLineNumber()),
-          Integer.valueOf(locator.getColumnNumber()),
-          errorCode.toString(),
-          content.getStringValue()
-        );
-      LOG.debug("XSLT: {}", message);
-      this.stream.write(message);
-      this.stream.write(System.lineSeparator());
-      this.stream.flush();
+      this.await(flush);
     } catch (final IOException e) {
       throw new UncheckedIOException(e);
     }
   }
 
+  /**
+   * Wait for the writer thread to complete the given flush. The writer is
+   * checked periodically, so that a flush that was queued after the writer
+   * stopped fails instead of blocking forever.
+   */
+
+  private void await(
+    final Flush flush)
+    throws IOException
+  {
+    while (true) {
+      try {
+        flush.done().get(WRITER_CHECK_INTERVAL_MS, MILLISECONDS);
+        return;
+      } catch (final TimeoutException e) {
+        if (!this.writer.isAlive() && !flush.done().isDone()) {
+          final var stopped =
+            new IOException("The message writer thread has stopped.");
+          final var failed = this.failure;
+          if (failed != null) {
+            stopped.addSuppressed(failed);
+          }
+          throw stopped;
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        final var ex = new InterruptedIOException();
+        ex.initCause(e);
+        throw ex;
+      } catch (final ExecutionException e) {
+        final var cause = e.getCause();
+        if (cause instanceof IOException ex) {
+          throw ex;
+        }
+        throw new IllegalStateException(cause);
+      }
+    }
+  }
+
+  private void run()
+  {
+    final var batch = new ArrayList<EntryType>(BATCH_SIZE);
+
+    try {
+      while (true) {
+        batch.add(this.queue.take());
+        this.queue.drainTo(batch, BATCH_SIZE - 1);
+        if (this.process(batch)) {
+          return;
+        }
+      }
+    } catch (final InterruptedException e) {
+      /*
+       * Write whatever has already been queued, so that no message that
+       * was accepted is lost, and then stop. Later messages fail.
+       */
+
+      this.queue.drainTo(batch);
+      this.process(batch);
+
+      if (this.failure == null) {
+        final var ex =
+          new InterruptedIOException("The message writer was interrupted.");
+        ex.initCause(e);
+        this.failure = ex;
+      }
+      Thread.currentThread().interrupt();
+    } catch (final RuntimeException | Error e) {
+      if (this.failure == null) {
+        this.failure = new IOException(e);
+      }
+      throw e;
+    } finally {
+      this.stop();
+    }
+  }
+
+  /**
+   * Process a batch of entries.
+   *
+   * @return {@code true} if the last flush was processed
+   */
+
+  private boolean process(
+    final ArrayList<EntryType> batch)
+  {
+    try {
+      for (final var entry : batch) {
+        if (entry instanceof Message message) {
+          this.write(message);
+        } else if (entry instanceof Flush flush) {
+          this.complete(flush);
+          if (flush.last()) {
+            return true;
+          }
+        }
+      }
+      return false;
+    } finally {
+      batch.clear();
+    }
+  }
+
+  /**
+   * Fail any flushes that will never be processed, and release the file.
+   */
+
+  private void stop()
+  {
+    final var remaining = new ArrayList<EntryType>();
+    this.queue.drainTo(remaining);
+
+    final var failed = this.failure;
+    for (final var entry : remaining) {
+      if (entry instanceof Flush flush) {
+        flush.done().completeExceptionally(
+          failed != null
+            ? failed
+            : new IOException("The message listener is closed."));
+      }
+    }
+
+    if (failed != null) {
+      try {
+        this.stream.close();
+      } catch (final IOException e) {
+        failed.addSuppressed(e);
+      }
+    }
+  }
+
+  private void write(
+    final Message message)
+  {
+    if (this.failure != null) {
+      return;
+    }
+
+    try {
+      this.stream.write(message.format());
+      this.stream.write(System.lineSeparator());
+    } catch (final IOException e) {
+      this.failure = e;
+    }
+  }
+
+  private void complete(
+    final Flush flush)
+  {
+    if (this.failure == null) {
+      try {
+        if (flush.last()) {
+          this.stream.close();
+        } else {
+          this.stream.flush();
+        }
+      } catch (final IOException e) {
+        this.failure = e;
+      }
+    }
+
+    final var failed = this.failure;
+    if (failed != null) {
+      flush.done().completeExceptionally(failed);
+    } else {
+      flush.done().complete(null);
+    }
+  }
+
+  /**
+   * Write all outstanding messages to the message file and close it.
+   *
+   * @throws IOException If any message could not be written
+   */
+
   @Override
   public void close()
     throws IOException
   {
-    this.stream.close();
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+
+    final var flush = new Flush(new CompletableFuture<>(), true);
+    this.queue.add(flush);
+    this.await(flush);
+
+    try {
+      this.writer.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      final var ex = new InterruptedIOException();
+      ex.initCause(e);
+      throw ex;
+    }
+  }
+
+  private interface EntryType
+  {
+
+  }
+
+  private record Message(
+    String systemId,
+    int line,
+    int column,
+    String errorCode,
+    String text)
+    implements EntryType
+  {
+    String format()
+    {
+      return new StringBuilder(128)
+        .append(this.systemId)
+        .append(':')
+        .append(this.line)
+        .append(':')
+        .append(this.column)
+        .append(": ")
+        .append(this.errorCode)
+        .append(": ")
+        .append(this.text)
+        .toString();
+    }
+  }
+
+  private record Flush(
+    CompletableFuture<Void> done,
+    boolean last)
+    implements EntryType
+  {
+    private Flush
+    {
+      Objects.requireNonNull(done, "done");
+    }
+
+    Flush(
+      final CompletableFuture<Void> inDone)
+    {
+      this(inDone, false);
+    }
   }
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.vanilla.internal;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * <p>A namespace sniffer.</p>
+ *
+ * <p>The sniffer can parse a document only as far as the end of the start
+ * tag of the root element, reporting the namespace of the root element along
+ * with any namespaces declared on it. The cost of sniffing the header is
+ * therefore proportional to the size of the document header rather than the
+ * size of the document, and is sufficient to reject documents that are
+ * obviously not structural documents.</p>
+ *
+ * <p>Determining which structural namespace a document uses requires the
+ * namespaces declared anywhere in the document, because a document that
+ * declares more than one structural namespace is ambiguous. Rather than
+ * parsing the document again, a {@link Collector} is inserted into the
+ * validating parse to record every declared namespace.</p>
+ */
+
+public final class XSNamespaceSniffer
+{
+  private XSNamespaceSniffer()
+  {
+
+  }
+
+  /**
+   * Sniff the namespaces of the header of the given document.
+   *
+   * @param file The document
+   *
+   * @return The sniffed namespaces
+   *
+   * @throws Exception On errors
+   */
+
+  public static Result sniffHeader(
+    final Path file)
+    throws Exception
+  {
+    Objects.requireNonNull(file, "file");
+
+    final var parsers =
+      new XSSAXParsers();
+    final var reader =
+      parsers.createXMLReaderNonValidating();
+    final var collector =
+      new Collector(true);
+
+    reader.setContentHandler(collector);
+
+    try (var stream = Files.newInputStream(file)) {
+      final var source = new InputSource();
+      source.setByteStream(stream);
+      source.setSystemId(file.toString());
+      reader.parse(source);
+    } catch (final RootElementReached e) {
+      // The expected way out of a header-only parse.
+    }
+
+    return collector.result();
+  }
+
+  /**
+   * The result of sniffing a document.
+   *
+   * @param rootNamespace The namespace of the root element, if any
+   * @param rootName      The qualified name of the root element
+   * @param rootLine      The line number of the root element, or -1
+   * @param declared      The declared namespaces
+   */
+
+  public record Result(
+    Optional<URI> rootNamespace,
+    String rootName,
+    int rootLine,
+    Set<URI> declared)
+  {
+    /**
+     * The result of sniffing a document.
+     *
+     * @param rootNamespace The namespace of the root element, if any
+     * @param rootName      The qualified name of the root element
+     * @param rootLine      The line number of the root element, or -1
+     * @param declared      The declared namespaces
+     */
+
+    public Result
+    {
+      Objects.requireNonNull(rootNamespace, "rootNamespace");
+      Objects.requireNonNull(rootName, "rootName");
+      declared = Set.copyOf(declared);
+    }
+  }
+
+  private static final class RootElementReached extends SAXException
+  {
+    RootElementReached()
+    {
+      super("Root element reached.");
+    }
+  }
+
+  /**
+   * A filter that records the root element and every namespace declared in
+   * the events that pass through it. Events are passed on to the filter's
+   * content handler, if one is set.
+   */
+
+  public static final class Collector extends XMLFilterImpl
+  {
+    private final boolean headerOnly;
+    private final HashSet<URI> declared;
+    private Locator locator;
+    private URI rootNamespace;
+    private String rootName;
+    private int rootLine;
+    private boolean rootSeen;
+
+    /**
+     * A filter that records namespaces declared anywhere in a document.
+     */
+
+    public Collector()
+    {
+      this(false);
+    }
+
+    private Collector(
+      final boolean inHeaderOnly)
+    {
+      this.headerOnly = inHeaderOnly;
+      this.declared = new HashSet<>();
+      this.rootName = "";
+      this.rootLine = -1;
+    }
+
+    /**
+     * @return The namespaces collected so far
+     */
+
+    public Result result()
+    {
+      return new Result(
+        Optional.ofNullable(this.rootNamespace),
+        this.rootName,
+        this.rootLine,
+        this.declared
+      );
+    }
+
+    @Override
+    public void setDocumentLocator(
+      final Locator inLocator)
+    {
+      this.locator = inLocator;
+      super.setDocumentLocator(inLocator);
+    }
+
+    @Override
+    public void startPrefixMapping(
+      final String prefix,
+      final String uri)
+      throws SAXException
+    {
+      this.declared.add(URI.create(uri));
+      super.startPrefixMapping(prefix, uri);
+    }
+
+    @Override
+    public void startElement(
+      final String uri,
+      final String localName,
+      final String qName,
+      final Attributes attributes)
+      throws SAXException
+    {
+      if (!this.rootSeen) {
+        this.rootSeen = true;
+        if (!uri.isEmpty()) {
+          this.rootNamespace = URI.create(uri);
+        }
+        this.rootName = qName;
+        if (this.locator != null) {
+          this.rootLine = this.locator.getLineNumber();
+        }
+        if (this.headerOnly) {
+          throw new RootElementReached();
+        }
+      }
+      super.startElement(uri, localName, qName, attributes);
+    }
+  }
+}
@@ -19,11 +19,9 @@ package com.io7m.xstructural.vanilla.internal;
 import com.io7m.xstructural.api.XSProcessorException;
 import com.io7m.xstructural.api.XSProcessorRequest;
 import com.io7m.xstructural.api.XSProcessorType;
-import com.io7m.xstructural.api.XSValidationException;
 import com.io7m.xstructural.xml.SXMLResources;
 
 import java.util.Objects;
-import java.util.Optional;
 
 /**
  * An XSL processor.
@@ -37,33 +35,43 @@ public final class XSProcessor implements XSProcessorType
   private final XSValidator validator;
   private final XSXHTMLValidator xhtmlValidator;
   private final XSEPUBCreator epubCreator;
-  private final Optional<XSTypeValidator> typeValidator;
 
   /**
    * An XSL processor.
    *
+   * @param inSaxon   The shared Saxon context
    * @param inRequest An XSL processor request
    */
 
   public XSProcessor(
+    final XSSaxonContext inSaxon,
     final XSProcessorRequest inRequest)
   {
+    Objects.requireNonNull(inSaxon, "saxon");
+
     this.request =
       Objects.requireNonNull(inRequest, "request");
     this.resources =
       new SXMLResources();
 
+    final var source =
+      new XSSourceDocument(this.request);
+
+    final var results =
+      new XSResultDocuments(this.request.outputDirectory());
+
+    final var typeValidator =
+      this.request.typeDescriptionFile()
+        .map(p -> new XSTypeValidator(this.request));
+
     this.validator =
-      new XSValidator(this.resources, this.request);
+      new XSValidator(this.resources, source, typeValidator);
     this.transformer =
-      new XSTransformer(this.resources, this.request);
+      new XSTransformer(inSaxon, this.resources, source, results);
     this.xhtmlValidator =
-      new XSXHTMLValidator(this.resources, this.request);
+      new XSXHTMLValidator(this.resources, this.request, results);
     this.epubCreator =
-      new XSEPUBCreator(this.resources, this.request);
-    this.typeValidator =
-      this.request.typeDescriptionFile()
-        .map(p -> new XSTypeValidator(this.resources, this.request));
+      new XSEPUBCreator(this.resources, source, results);
   }
 
   @Override
@@ -73,19 +81,16 @@ public final class XSProcessor implements XSProcessorType
     switch (this.request.task()) {
       case VALIDATE: {
         this.validator.execute();
-        this.typeValidatorExecute();
         break;
       }
       case TRANSFORM_XHTML: {
         this.validator.execute();
-        this.typeValidatorExecute();
         this.transformer.execute();
         this.xhtmlValidator.execute();
         break;
       }
       case TRANSFORM_EPUB: {
         this.validator.execute();
-        this.typeValidatorExecute();
         this.transformer.execute();
         this.xhtmlValidator.execute();
         this.epubCreator.execute();
@@ -97,17 +102,4 @@ public final class XSProcessor implements XSProcessorType
       }
     }
   }
-
-  private void typeValidatorExecute()
-    throws XSProcessorException
-  {
-    if (this.typeValidator.isPresent()) {
-      final var exec = this.typeValidator.get();
-      try {
-        exec.execute();
-      } catch (final XSValidationException e) {
-        throw new XSProcessorException(e);
-      }
-    }
-  }
 }
@@ -0,0 +1,298 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xstructural.vanilla.internal;
+
+import com.io7m.xstructural.api.XSProcessorRequest;
+import com.io7m.xstructural.api.XSProcessorRequestType;
+import net.sf.saxon.s9api.AbstractXsltTransformer;
+import net.sf.saxon.s9api.Destination;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.SaxonApiUncheckedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * <p>The result documents of a transform, held in memory.</p>
+ *
+ * <p>When installed into a transformer, every {@code xsl:result-document}
+ * produced by the transform is serialized into memory rather than to the
+ * file named by its {@code href}. Documents are identified by the path of
+ * their {@code href} relative to the output directory, using {@code /} as
+ * the separator, and the serialization parameters given in the stylesheet
+ * are applied as usual. A transform that produces two documents with the
+ * same path, or a document outside of the output directory, fails. The
+ * documents can later be written to the file system if the intermediate
+ * files are wanted.</p>
+ *
+ * <p>The content of each document is copied out of its serialization buffer
+ * once, when it is first requested, and must therefore not be requested
+ * until the transform has completed.</p>
+ */
+
+public final class XSResultDocuments
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XSResultDocuments.class);
+
+  private final Path outputDirectory;
+  private final HashMap<String, Document> documents;
+
+  /**
+   * The result documents of a transform, held in memory.
+   *
+   * @param inOutputDirectory The output directory of the transform
+   */
+
+  public XSResultDocuments(
+    final Path inOutputDirectory)
+  {
+    this.outputDirectory =
+      Objects.requireNonNull(inOutputDirectory, "outputDirectory")
+        .toAbsolutePath()
+        .normalize();
+    this.documents = new HashMap<>();
+  }
+
+  /**
+   * Determine whether the result documents of the given request are captured
+   * in memory. This is currently the case only for EPUB files, as the
+   * documents are immediately packed into an archive.
+   *
+   * @param request The request
+   *
+   * @return {@code true} if result documents are captured
+   */
+
+  public static boolean isUsedFor(
+    final XSProcessorRequest request)
+  {
+    return request.task() == XSProcessorRequestType.Task.TRANSFORM_EPUB;
+  }
+
+  /**
+   * Determine the name of the document that would be written to the given
+   * file.
+   *
+   * @param file The file
+   *
+   * @return The path of the file relative to the output directory, or
+   * nothing if the file is not inside the output directory
+   */
+
+  public Optional<String> nameOf(
+    final Path file)
+  {
+    final var relative =
+      this.outputDirectory.relativize(file.toAbsolutePath().normalize());
+
+    if (relative.toString().isEmpty() || relative.startsWith("..")) {
+      return Optional.empty();
+    }
+
+    final var text = new StringBuilder(64);
+    for (final var segment : relative) {
+      if (!text.isEmpty()) {
+        text.append('/');
+      }
+      text.append(segment);
+    }
+    return Optional.of(text.toString());
+  }
+
+  /**
+   * Capture the result documents of the given transformer.
+   *
+   * @param processor   The processor
+   * @param transformer The transformer
+   */
+
+  public void install(
+    final Processor processor,
+    final AbstractXsltTransformer transformer)
+  {
+    Objects.requireNonNull(processor, "processor");
+    Objects.requireNonNull(transformer, "transformer");
+
+    transformer.setResultDocumentHandler(uri -> this.open(processor, uri));
+  }
+
+  private Destination open(
+    final Processor processor,
+    final URI uri)
+  {
+    final Path file;
+    try {
+      file = Path.of(uri);
+    } catch (final IllegalArgumentException e) {
+      throw failure(
+        String.format("Result document %s is not a file", uri)
+      );
+    }
+
+    final var name =
+      this.nameOf(file)
+        .orElseThrow(() -> failure(
+          String.format(
+            "Result document %s is not inside the output directory %s",
+            uri,
+            this.outputDirectory)
+        ));
+
+    final var stream = new ByteArrayOutputStream(16384);
+    LOG.debug("result document {} ({})", name, uri);
+
+    synchronized (this.documents) {
+      final var existing =
+        this.documents.putIfAbsent(name, new Document(uri, stream));
+      if (existing != null) {
+        throw failure(
+          String.format(
+            "Result documents %s and %s both resolve to %s",
+            existing.uri,
+            uri,
+            name)
+        );
+      }
+    }
+    return processor.newSerializer(stream);
+  }
+
+  private static SaxonApiUncheckedException failure(
+    final String message)
+  {
+    return new SaxonApiUncheckedException(new SaxonApiException(message));
+  }
+
+  /**
+   * @return The names of all result documents, in sorted order
+   */
+
+  public List<String> names()
+  {
+    synchronized (this.documents) {
+      final var names = new ArrayList<>(this.documents.keySet());
+      Collections.sort(names);
+      return names;
+    }
+  }
+
+  /**
+   * @param name The document name
+   *
+   * @return The URI that the stylesheet gave to the named document
+   */
+
+  public Optional<URI> uriOf(
+    final String name)
+  {
+    synchronized (this.documents) {
+      return Optional.ofNullable(this.documents.get(name))
+        .map(document -> document.uri);
+    }
+  }
+
+  /**
+   * Retrieve the serialized content of the named document. The returned
+   * array is shared between all callers and must not be modified.
+   *
+   * @param name The document name
+   *
+   * @return The serialized content of the named document
+   */
+
+  public Optional<byte[]> bytesOf(
+    final String name)
+  {
+    synchronized (this.documents) {
+      return Optional.ofNullable(this.documents.get(name))
+        .map(Document::bytes);
+    }
+  }
+
+  /**
+   * @param name The document name
+   *
+   * @return A stream of the serialized content of the named document
+   */
+
+  public Optional<InputStream> streamOf(
+    final String name)
+  {
+    return this.bytesOf(name)
+      .map(ByteArrayInputStream::new);
+  }
+
+  /**
+   * Write all documents to the files named by their URIs.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void writeAll()
+    throws IOException
+  {
+    for (final var name : this.names()) {
+      final var file = Path.of(this.uriOf(name).orElseThrow());
+      LOG.info("write {}", file);
+      final var parent = file.getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      Files.write(file, this.bytesOf(name).orElseThrow());
+    }
+  }
+
+  private static final class Document
+  {
+    private final URI uri;
+    private ByteArrayOutputStream stream;
+    private byte[] bytes;
+
+    Document(
+      final URI inUri,
+      final ByteArrayOutputStream inStream)
+    {
+      this.uri = Objects.requireNonNull(inUri, "uri");
+      this.stream = Objects.requireNonNull(inStream, "stream");
+    }
+
+    byte[] bytes()
+    {
+      if (this.bytes == null) {
+        this.bytes = this.stream.toByteArray();
+        this.stream = null;
+      }
+      return this.bytes;
+    }
+  }
+}
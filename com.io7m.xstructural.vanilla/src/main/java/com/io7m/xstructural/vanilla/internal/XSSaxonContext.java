@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.vanilla.internal;
+
+import com.io7m.xstructural.vanilla.internal.xslt_extensions.XSMIMEExtensionFunction;
+import com.io7m.xstructural.vanilla.internal.xslt_extensions.XSNumberOfExtensionFunction;
+import com.io7m.xstructural.vanilla.internal.xslt_extensions.XSOwnerOfExtensionFunction;
+import com.io7m.xstructural.vanilla.internal.xslt_extensions.XSSectionNextExtensionFunction;
+import com.io7m.xstructural.vanilla.internal.xslt_extensions.XSSectionPreviousExtensionFunction;
+import com.io7m.xstructural.vanilla.internal.xslt_extensions.XSTargetOfExtensionFunction;
+import com.io7m.xstructural.vanilla.internal.xslt_extensions.XSTitleCaseExtensionFunction;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.Processor;
+
+import static java.lang.Boolean.TRUE;
+import static net.sf.saxon.lib.Feature.OPTIMIZATION_LEVEL;
+import static net.sf.saxon.lib.Feature.XINCLUDE;
+import static net.sf.saxon.lib.Feature.XSLT_ENABLE_ASSERTIONS;
+
+/**
+ * <p>A long-lived Saxon context shared between requests.</p>
+ *
+ * <p>The context owns a Saxon configuration and processor with all of the
+ * xstructural extension functions registered, along with the cache of
+ * stylesheets compiled against that processor. The context is used by any
+ * number of concurrent requests, each of which loads its own transformer
+ * from the shared compiled stylesheets. Nothing request-specific may be
+ * stored here. Document numbering is scoped to the requesting thread (see
+ * {@link XSDocumentNumbering}), and the document indexes used by the
+ * extension functions are attached to the trees that they index rather than
+ * to the context.</p>
+ */
+
+public final class XSSaxonContext
+{
+  private static final XSSaxonContext SHARED = new XSSaxonContext();
+
+  private final Processor processor;
+  private final XSStylesheetCache stylesheets;
+
+  /**
+   * A long-lived Saxon context shared between requests.
+   *
+   * @see #shared()
+   */
+
+  public XSSaxonContext()
+  {
+    final var configuration = new Configuration();
+    configuration.setConfigurationProperty(OPTIMIZATION_LEVEL, "ltmv");
+    configuration.setConfigurationProperty(XINCLUDE, TRUE);
+    configuration.setConfigurationProperty(XSLT_ENABLE_ASSERTIONS, TRUE);
+    XSDocumentNumbering.install(configuration);
+
+    this.processor = new Processor(configuration);
+    this.processor.registerExtensionFunction(new XSTitleCaseExtensionFunction());
+    this.processor.registerExtensionFunction(new XSMIMEExtensionFunction());
+    this.processor.registerExtensionFunction(new XSNumberOfExtensionFunction());
+    this.processor.registerExtensionFunction(new XSOwnerOfExtensionFunction());
+    this.processor.registerExtensionFunction(new XSTargetOfExtensionFunction());
+    this.processor.registerExtensionFunction(
+      new XSSectionPreviousExtensionFunction());
+    this.processor.registerExtensionFunction(
+      new XSSectionNextExtensionFunction());
+    this.stylesheets = new XSStylesheetCache(this.processor);
+  }
+
+  /**
+   * @return The context shared by all processors in the JVM
+   */
+
+  public static XSSaxonContext shared()
+  {
+    return SHARED;
+  }
+
+  /**
+   * @return The context's processor
+   */
+
+  public Processor processor()
+  {
+    return this.processor;
+  }
+
+  /**
+   * @return The cache of stylesheets compiled against {@link #processor()}
+   */
+
+  public XSStylesheetCache stylesheets()
+  {
+    return this.stylesheets;
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.vanilla.internal;
+
+import com.io7m.xstructural.api.XSProcessorRequest;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import org.xml.sax.InputSource;
+
+import javax.xml.transform.sax.SAXSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Objects;
+
+/**
+ * <p>The source document of a request.</p>
+ *
+ * <p>Information that is derived from the source document, and that would
+ * otherwise be derived separately by each processing stage, is computed at
+ * most once and shared between the stages of a single request.</p>
+ */
+
+public final class XSSourceDocument
+{
+  private final XSProcessorRequest request;
+  private XSNamespaceSniffer.Result header;
+  private XSNamespaceSniffer.Result sniffed;
+  private XdmNode tree;
+  private Processor treeProcessor;
+
+  /**
+   * The source document of a request.
+   *
+   * @param inRequest The request
+   */
+
+  public XSSourceDocument(
+    final XSProcessorRequest inRequest)
+  {
+    this.request =
+      Objects.requireNonNull(inRequest, "request");
+  }
+
+  /**
+   * @return The request
+   */
+
+  public XSProcessorRequest request()
+  {
+    return this.request;
+  }
+
+  /**
+   * Sniff the namespaces of the header of the source document, if this has
+   * not already been done.
+   *
+   * @return The sniffed namespaces
+   *
+   * @throws Exception On errors
+   *
+   * @see XSNamespaceSniffer#sniffHeader(java.nio.file.Path)
+   */
+
+  public XSNamespaceSniffer.Result headerNamespaces()
+    throws Exception
+  {
+    if (this.header == null) {
+      this.header = XSNamespaceSniffer.sniffHeader(this.request.sourceFile());
+    }
+    return this.header;
+  }
+
+  /**
+   * Retrieve the namespaces of the source document. If the namespaces
+   * declared anywhere in the document were collected during validation,
+   * those are returned, and otherwise the namespaces of the header are
+   * returned. The document is never parsed in full merely to find its
+   * namespaces; a document that mixes structural namespaces below the root
+   * element is rejected when its tree is transformed.
+   *
+   * @return The sniffed namespaces
+   *
+   * @throws Exception On errors
+   *
+   * @see #setNamespaces(XSNamespaceSniffer.Result)
+   * @see #headerNamespaces()
+   */
+
+  public XSNamespaceSniffer.Result namespaces()
+    throws Exception
+  {
+    if (this.sniffed == null) {
+      return this.headerNamespaces();
+    }
+    return this.sniffed;
+  }
+
+  /**
+   * Record the namespaces collected during a complete parse of the source
+   * document.
+   *
+   * @param namespaces The namespaces
+   */
+
+  public void setNamespaces(
+    final XSNamespaceSniffer.Result namespaces)
+  {
+    this.sniffed = Objects.requireNonNull(namespaces, "namespaces");
+  }
+
+  /**
+   * Parse the source document into a tree, if this has not already been
+   * done. The tree is built once per request, with XInclude processing
+   * applied according to the processor's configuration, and is then used as
+   * the input to every transform in the request that uses the same
+   * processor. A tree can only be transformed by stylesheets compiled
+   * against the processor that built it, so the tree is built again if a
+   * different processor is given. The source document is assumed to have
+   * been validated before this method is called.
+   *
+   * @param processor The processor
+   *
+   * @return The parsed source document
+   *
+   * @throws IOException       On I/O errors
+   * @throws SaxonApiException On parse errors
+   */
+
+  public XdmNode tree(
+    final Processor processor)
+    throws IOException, SaxonApiException
+  {
+    Objects.requireNonNull(processor, "processor");
+
+    if (this.tree == null || this.treeProcessor != processor) {
+      final var sourcePath = this.request.sourceFile();
+      final var builder = processor.newDocumentBuilder();
+
+      /*
+       * The tree is built in its own numbering scope so that it always
+       * receives document number zero, exactly as it would if it had been
+       * parsed at the start of a transform.
+       */
+
+      final var numbering =
+        XSDocumentNumbering.openScope(processor.getUnderlyingConfiguration());
+      try (var stream = Files.newInputStream(sourcePath)) {
+        final var source = new InputSource();
+        source.setByteStream(stream);
+        source.setSystemId(sourcePath.toString());
+        this.tree = builder.build(new SAXSource(source));
+        this.treeProcessor = processor;
+      } finally {
+        numbering.close();
+      }
+    }
+    return this.tree;
+  }
+
+  /**
+   * Open a document numbering scope for a transform of the source tree.
+   * Documents created by the transform are numbered from the number
+   * immediately following the source tree.
+   *
+   * @param processor The processor
+   *
+   * @return A numbering scope that must be closed when the transform completes
+   *
+   * @see XSDocumentNumbering#openScope(net.sf.saxon.Configuration)
+   */
+
+  public XSDocumentNumbering.Scope openTransformScope(
+    final Processor processor)
+  {
+    return XSDocumentNumbering.openScope(
+      processor.getUnderlyingConfiguration(),
+      1L
+    );
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.vanilla.internal;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XsltExecutable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+
+import javax.xml.transform.sax.SAXSource;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * <p>A cache of compiled stylesheets.</p>
+ *
+ * <p>Compiled stylesheets are immutable and may be loaded by any number of
+ * threads concurrently. Stylesheets are compiled at most once per
+ * (stylesheet, namespace) pair for a given processor; threads that request
+ * a stylesheet that is currently being compiled wait for that compilation
+ * to complete rather than compiling the stylesheet again.</p>
+ *
+ * <p>A stylesheet that fails to compile is cached along with its error, and
+ * the error is raised again for every later request for that stylesheet.
+ * The stylesheets are bundled resources, so a compilation error will not go
+ * away if compilation is retried. I/O errors are not cached, because they
+ * may be transient.</p>
+ */
+
+public final class XSStylesheetCache
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XSStylesheetCache.class);
+
+  private final Processor processor;
+  private final ConcurrentHashMap<Key, CompletableFuture<XsltExecutable>> executables;
+
+  /**
+   * A cache of compiled stylesheets.
+   *
+   * @param inProcessor The processor against which stylesheets are compiled
+   */
+
+  public XSStylesheetCache(
+    final Processor inProcessor)
+  {
+    this.processor =
+      Objects.requireNonNull(inProcessor, "processor");
+    this.executables =
+      new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Retrieve a compiled stylesheet, compiling it if necessary.
+   *
+   * @param url       The location of the stylesheet
+   * @param namespace The namespace of the documents that will be transformed
+   *
+   * @return A compiled stylesheet
+   *
+   * @throws IOException       On I/O errors
+   * @throws SaxonApiException On compilation errors
+   */
+
+  public XsltExecutable executableFor(
+    final URL url,
+    final URI namespace)
+    throws IOException, SaxonApiException
+  {
+    Objects.requireNonNull(url, "url");
+    Objects.requireNonNull(namespace, "namespace");
+
+    final var key = new Key(url.toString(), namespace);
+    final var future = new CompletableFuture<XsltExecutable>();
+    final var existing = this.executables.putIfAbsent(key, future);
+    if (existing != null) {
+      LOG.debug("waiting for cached stylesheet {}", url);
+      return await(existing);
+    }
+
+    try {
+      future.complete(this.compile(url, namespace));
+    } catch (final SaxonApiException e) {
+      future.completeExceptionally(e);
+    } catch (final IOException | RuntimeException e) {
+      this.executables.remove(key, future);
+      future.completeExceptionally(e);
+    }
+    return await(future);
+  }
+
+  private static XsltExecutable await(
+    final CompletableFuture<XsltExecutable> future)
+    throws IOException, SaxonApiException
+  {
+    try {
+      return future.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (final ExecutionException e) {
+      final var cause = e.getCause();
+      if (cause instanceof IOException ex) {
+        throw ex;
+      }
+      if (cause instanceof SaxonApiException ex) {
+        throw ex;
+      }
+      if (cause instanceof RuntimeException ex) {
+        throw ex;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private XsltExecutable compile(
+    final URL url,
+    final URI namespace)
+    throws IOException, SaxonApiException
+  {
+    LOG.debug("compiling stylesheet {} for {}", url, namespace);
+
+    final var compiler = this.processor.newXsltCompiler();
+    compiler.setErrorListener(new XSErrorListener(LOG));
+
+    try (var stream = url.openStream()) {
+      final var source = new InputSource();
+      source.setByteStream(stream);
+      source.setSystemId(url.toString());
+      return compiler.compile(new SAXSource(source));
+    }
+  }
+
+  private record Key(
+    String stylesheet,
+    URI namespace)
+  {
+    private Key
+    {
+      Objects.requireNonNull(stylesheet, "stylesheet");
+      Objects.requireNonNull(namespace, "namespace");
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.vanilla.internal;
+
+import com.io7m.xstructural.api.XSProcessorRequest;
+import net.sf.saxon.lib.StandardLogger;
+import net.sf.saxon.lib.TraceListener;
+import net.sf.saxon.trace.XSLTTraceListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.util.Optional;
+
+/**
+ * Functions to create trace listeners for transforms.
+ */
+
+public final class XSTraceListeners
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XSTraceListeners.class);
+
+  private XSTraceListeners()
+  {
+
+  }
+
+  /**
+   * Create a trace listener for the given request, if the request asks for
+   * tracing.
+   *
+   * @param request The request
+   *
+   * @return A trace listener, or nothing if tracing is disabled
+   *
+   * @throws FileNotFoundException If the trace file cannot be opened
+   */
+
+  public static Optional<TraceListener> create(
+    final XSProcessorRequest request)
+    throws FileNotFoundException
+  {
+    final TraceListener traceListener =
+      switch (request.traceMode()) {
+        case NONE -> null;
+        case SUMMARY -> new XSTraceSummaryListener();
+        case FULL -> new XSLTTraceListener();
+      };
+
+    if (traceListener == null) {
+      return Optional.empty();
+    }
+
+    final var traceFile = request.traceFile().toFile();
+    LOG.debug("trace file ({}): {}", request.traceMode(), traceFile);
+
+    traceListener.setOutputDestination(new StandardLogger(traceFile));
+    return Optional.of(traceListener);
+  }
+}
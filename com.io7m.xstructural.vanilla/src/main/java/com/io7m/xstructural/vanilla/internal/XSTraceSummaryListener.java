@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.vanilla.internal;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.expr.instruct.NamedTemplate;
+import net.sf.saxon.lib.Logger;
+import net.sf.saxon.lib.TraceListener;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.trace.Traceable;
+import net.sf.saxon.trans.SimpleMode;
+import net.sf.saxon.trans.rules.Rule;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A trace listener that counts the number of times each template is
+ * entered, and writes a summary when the transform completes. Unlike a
+ * full instruction trace, the per-event cost is a single map update.
+ */
+
+public final class XSTraceSummaryListener implements TraceListener
+{
+  private final HashMap<String, Long> counts;
+  private Logger output;
+
+  /**
+   * A trace listener that counts template entries.
+   */
+
+  public XSTraceSummaryListener()
+  {
+    this.counts = new HashMap<>();
+  }
+
+  @Override
+  public void setOutputDestination(
+    final Logger stream)
+  {
+    this.output = stream;
+  }
+
+  @Override
+  public void open(
+    final Controller controller)
+  {
+    this.counts.clear();
+  }
+
+  @Override
+  public void close()
+  {
+    if (this.output == null) {
+      return;
+    }
+
+    final var entries =
+      this.counts.entrySet()
+        .stream()
+        .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder())
+                  .thenComparing(Map.Entry.comparingByKey()))
+        .toList();
+
+    this.output.info("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    this.output.info("<templateSummary>");
+    for (final var entry : entries) {
+      this.output.info(
+        String.format(
+          "  <template %s count=\"%d\"/>",
+          entry.getKey(),
+          entry.getValue()
+        )
+      );
+    }
+    this.output.info("</templateSummary>");
+    this.output.close();
+  }
+
+  @Override
+  public void enter(
+    final Traceable instruction,
+    final Map<String, Object> properties,
+    final XPathContext context)
+  {
+    if (instruction instanceof NamedTemplate template) {
+      this.increment(
+        String.format(
+          "name=\"%s\"",
+          escape(String.valueOf(template.getTemplateName())))
+      );
+    }
+  }
+
+  @Override
+  public void leave(
+    final Traceable instruction)
+  {
+
+  }
+
+  @Override
+  public void startCurrentItem(
+    final Item currentItem)
+  {
+
+  }
+
+  @Override
+  public void endCurrentItem(
+    final Item currentItem)
+  {
+
+  }
+
+  @Override
+  public void startRuleSearch()
+  {
+
+  }
+
+  @Override
+  public void endRuleSearch(
+    final Object rule,
+    final SimpleMode mode,
+    final Item item)
+  {
+    if (rule instanceof Rule templateRule) {
+      this.increment(
+        String.format(
+          "mode=\"%s\" match=\"%s\"",
+          escape(String.valueOf(mode.getModeName())),
+          escape(String.valueOf(templateRule.getPattern())))
+      );
+    }
+  }
+
+  private void increment(
+    final String key)
+  {
+    this.counts.merge(key, Long.valueOf(1L), Long::sum);
+  }
+
+  private static String escape(
+    final String text)
+  {
+    return text.replace("&", "&amp;")
+      .replace("<", "&lt;")
+      .replace(">", "&gt;")
+      .replace("\"", "&quot;");
+  }
+}
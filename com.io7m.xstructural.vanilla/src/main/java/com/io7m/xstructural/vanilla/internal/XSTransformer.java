@@ -20,38 +20,31 @@ import com.io7m.xstructural.api.XSProcessorRequest;
 import com.io7m.xstructural.api.XSProcessorType;
 import com.io7m.xstructural.api.XSSchemas;
 import com.io7m.xstructural.api.XSTransformException;
-import com.io7m.xstructural.vanilla.internal.xslt_extensions.XSTitleCaseExtensionFunction;
 import com.io7m.xstructural.xml.SXMLResources;
-import net.sf.saxon.Configuration;
-import net.sf.saxon.lib.StandardLogger;
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.pattern.NodeKindTest;
 import net.sf.saxon.s9api.Processor;
 import net.sf.saxon.s9api.QName;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.Serializer;
 import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.s9api.XdmValue;
-import net.sf.saxon.s9api.XsltCompiler;
 import net.sf.saxon.s9api.XsltExecutable;
-import net.sf.saxon.trace.XSLTTraceListener;
+import net.sf.saxon.s9api.XsltTransformer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.InputSource;
-import org.xml.sax.helpers.DefaultHandler;
 
-import javax.xml.transform.sax.SAXSource;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Objects;
+import java.util.Set;
 
-import static java.lang.Boolean.TRUE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-import static net.sf.saxon.lib.Feature.OPTIMIZATION_LEVEL;
-import static net.sf.saxon.lib.Feature.XINCLUDE;
-import static net.sf.saxon.lib.Feature.XSLT_ENABLE_ASSERTIONS;
 
 /**
  * An XSL transformer.
@@ -61,24 +54,37 @@ public final class XSTransformer implements XSProcessorType
 {
   private static final Logger LOG = LoggerFactory.getLogger(XSTransformer.class);
 
+  private final XSSaxonContext saxon;
   private final SXMLResources resources;
+  private final XSSourceDocument source;
   private final XSProcessorRequest request;
+  private final XSResultDocuments results;
 
   /**
    * An XSL transformer.
    *
+   * @param inSaxon     The shared Saxon context
    * @param inResources The SXML resources
-   * @param inRequest   The transform request
+   * @param inSource    The source document of the transform request
+   * @param inResults   The result documents of the request
    */
 
   public XSTransformer(
+    final XSSaxonContext inSaxon,
     final SXMLResources inResources,
-    final XSProcessorRequest inRequest)
+    final XSSourceDocument inSource,
+    final XSResultDocuments inResults)
   {
+    this.saxon =
+      Objects.requireNonNull(inSaxon, "saxon");
     this.resources =
       Objects.requireNonNull(inResources, "resources");
+    this.source =
+      Objects.requireNonNull(inSource, "source");
     this.request =
-      Objects.requireNonNull(inRequest, "request");
+      this.source.request();
+    this.results =
+      Objects.requireNonNull(inResults, "results");
   }
 
   private static XSTransformException epub7NotSupported()
@@ -105,6 +111,56 @@ public final class XSTransformer implements XSProcessorType
     return new XSTransformException(builder.toString());
   }
 
+  private static XSTransformException ambiguous(
+    final Set<URI> namespaces)
+  {
+    final var lineSeparator = System.lineSeparator();
+    final var builder = new StringBuilder(128);
+    builder.append("Ambiguous document.");
+    builder.append(lineSeparator);
+    builder.append(
+      "  Problem: The input document uses multiple xstructural schemas");
+    builder.append(lineSeparator);
+    builder.append("           Cannot determine which XSLT stylesheet to use!");
+    builder.append(lineSeparator);
+    builder.append("  Namespaces: ");
+    builder.append(namespaces);
+    builder.append(lineSeparator);
+    return new XSTransformException(builder.toString());
+  }
+
+  /**
+   * Check that no element of the tree belongs to a structural namespace other
+   * than the target namespace. The stylesheet was selected for the target
+   * namespace, and the namespaces checked by {@link #findNamespace()} were
+   * either collected by the validating parse, which is not the parse that
+   * built the tree, or taken from the header of the document alone.
+   */
+
+  private static void checkTreeNamespaces(
+    final XdmNode tree,
+    final URI target)
+    throws XSTransformException
+  {
+    final var others = new HashSet<String>();
+    for (final var namespace : XSSchemas.namespaces()) {
+      if (!Objects.equals(namespace, target)) {
+        others.add(namespace.toString());
+      }
+    }
+
+    final var elements =
+      tree.getUnderlyingNode()
+        .iterateAxis(AxisInfo.DESCENDANT, NodeKindTest.ELEMENT);
+
+    for (var e = elements.next(); e != null; e = elements.next()) {
+      final var namespace = e.getNamespaceUri().toString();
+      if (others.contains(namespace)) {
+        throw ambiguous(Set.of(target, URI.create(namespace)));
+      }
+    }
+  }
+
   @Override
   public void execute()
     throws XSTransformException
@@ -123,77 +179,26 @@ public final class XSTransformer implements XSProcessorType
   {
     final var namespace = this.findNamespace();
 
-    final var configuration = new Configuration();
-    configuration.setConfigurationProperty(OPTIMIZATION_LEVEL, "ltmv");
-    configuration.setConfigurationProperty(XINCLUDE, TRUE);
-    configuration.setConfigurationProperty(XSLT_ENABLE_ASSERTIONS, TRUE);
-
     final var outputPath =
       this.request.outputDirectory()
         .toAbsolutePath();
 
     Files.createDirectories(outputPath);
 
-    final var processor = new Processor(configuration);
-    processor.registerExtensionFunction(new XSTitleCaseExtensionFunction());
-
-    final var compiler = processor.newXsltCompiler();
-    compiler.setErrorListener(new XSErrorListener(LOG));
-
-    final var executable =
-      this.compileStylesheet(namespace, compiler);
+    final var processor = this.saxon.processor();
+    final var executable = this.compileStylesheet(namespace);
+    final var tree = this.source.tree(processor);
+    checkTreeNamespaces(tree, namespace);
 
     LOG.debug("loading stylesheet");
     final var transformer = executable.load();
 
-    XSDocumentNumbering.fixDocumentNumber(transformer);
-
-    try (var stream = Files.newInputStream(this.request.sourceFile())) {
-      final var source = new InputSource();
-      source.setByteStream(stream);
-      source.setSystemId(this.request.sourceFile().toString());
-      transformer.setSource(new SAXSource(source));
-
-      final var out =
-        processor.newSerializer(
-          this.request.outputDirectory()
-            .resolve("extra.xml")
-            .toFile()
-        );
-      out.setOutputProperty(Serializer.Property.METHOD, "xhtml");
-      out.setOutputProperty(Serializer.Property.INDENT, "yes");
-      transformer.setDestination(out);
-      transformer.setTraceListener(this.createTraceListener());
-
-      final var messagePath = this.request.messageFile();
-      try (var messageListener = new XSMessageListener(messagePath)) {
-        transformer.setMessageListener(messageListener);
-
-        transformer.setParameter(
-          QName.fromEQName("xstructural.outputDirectory"),
-          XdmValue.makeValue(outputPath.toUri().toString())
-        );
-
-        transformer.setParameter(
-          QName.fromEQName("xstructural.sourceDirectory"),
-          XdmValue.makeValue(
-            this.request.sourceFile().getParent().toUri().toString())
-        );
-
-        this.request.brandingFile()
-          .ifPresent(path -> {
-            LOG.debug("branding file: {}", path);
-            transformer.setParameter(
-              QName.fromEQName("branding"),
-              new XdmAtomicValue(path.toUri())
-            );
-          });
-
-        LOG.debug("output directory: {}", outputPath);
-        LOG.debug("executing stylesheet");
-        transformer.transform();
-        LOG.debug("execution completed");
-      }
+    final var numbering =
+      this.source.openTransformScope(processor);
+    try {
+      this.runTransform(processor, transformer, tree, outputPath);
+    } finally {
+      numbering.close();
     }
 
     if (this.request.writeResources()) {
@@ -204,49 +209,73 @@ public final class XSTransformer implements XSProcessorType
     }
   }
 
-  private URI findNamespace()
+  private void runTransform(
+    final Processor processor,
+    final XsltTransformer transformer,
+    final XdmNode tree,
+    final Path outputPath)
     throws Exception
   {
-    final var parsers =
-      new XSSAXParsers();
-    final var reader =
-      parsers.createXMLReaderNonValidating();
-
-    final var namespaces = new HashSet<URI>();
-    reader.setContentHandler(new DefaultHandler()
-    {
-      @Override
-      public void startPrefixMapping(
-        final String prefix,
-        final String uri)
-      {
-        namespaces.add(URI.create(uri));
-      }
-    });
+    transformer.setInitialContextNode(tree);
 
-    try (var stream = Files.newInputStream(this.request.sourceFile())) {
-      final var source = new InputSource();
-      source.setByteStream(stream);
-      source.setSystemId(this.request.sourceFile().toString());
-      reader.parse(source);
+    final var out =
+      processor.newSerializer(
+        this.request.outputDirectory()
+          .resolve("extra.xml")
+          .toFile()
+      );
+    out.setOutputProperty(Serializer.Property.METHOD, "xhtml");
+    out.setOutputProperty(Serializer.Property.INDENT, "yes");
+    transformer.setDestination(out);
+    XSTraceListeners.create(this.request)
+      .ifPresent(transformer::setTraceListener);
+
+    if (XSResultDocuments.isUsedFor(this.request)) {
+      this.results.install(processor, transformer);
     }
 
+    final var messagePath = this.request.messageFile();
+    try (var messageListener = new XSMessageListener(messagePath)) {
+      transformer.setMessageListener(messageListener);
+
+      transformer.setParameter(
+        QName.fromEQName("xstructural.outputDirectory"),
+        XdmValue.makeValue(outputPath.toUri().toString())
+      );
+
+      transformer.setParameter(
+        QName.fromEQName("xstructural.sourceDirectory"),
+        XdmValue.makeValue(
+          this.request.sourceFile().getParent().toUri().toString())
+      );
+
+      this.request.brandingFile()
+        .ifPresent(path -> {
+          LOG.debug("branding file: {}", path);
+          transformer.setParameter(
+            QName.fromEQName("branding"),
+            new XdmAtomicValue(path.toUri())
+          );
+        });
+
+      LOG.debug("output directory: {}", outputPath);
+      LOG.debug("executing stylesheet");
+      transformer.transform();
+      LOG.debug("execution completed");
+    }
+  }
+
+  private URI findNamespace()
+    throws Exception
+  {
+    final var sniffed = this.source.namespaces();
+    final var namespaces = new HashSet<>(sniffed.declared());
+    sniffed.rootNamespace().ifPresent(namespaces::add);
+
     namespaces.retainAll(XSSchemas.namespaces());
 
     if (namespaces.size() != 1) {
-      final var lineSeparator = System.lineSeparator();
-      final var builder = new StringBuilder(128);
-      builder.append("Ambiguous document.");
-      builder.append(lineSeparator);
-      builder.append(
-        "  Problem: The input document uses multiple xstructural schemas");
-      builder.append(lineSeparator);
-      builder.append("           Cannot determine which XSLT stylesheet to use!");
-      builder.append(lineSeparator);
-      builder.append("  Namespaces: ");
-      builder.append(namespaces);
-      builder.append(lineSeparator);
-      throw new XSTransformException(builder.toString());
+      throw ambiguous(namespaces);
     }
 
     final var target = namespaces.iterator().next();
@@ -268,22 +297,12 @@ public final class XSTransformer implements XSProcessorType
   }
 
   private XsltExecutable compileStylesheet(
-    final URI target,
-    final XsltCompiler compiler)
+    final URI target)
     throws IOException, SaxonApiException, XSTransformException
   {
     final var url = this.selectStylesheet(target);
     Objects.requireNonNull(url, "url");
-    LOG.debug("compiling stylesheet {}", url);
-
-    final XsltExecutable executable;
-    try (var stream = url.openStream()) {
-      final var source = new InputSource();
-      source.setByteStream(stream);
-      source.setSystemId(url.toString());
-      executable = compiler.compile(new SAXSource(source));
-    }
-    return executable;
+    return this.saxon.stylesheets().executableFor(url, target);
   }
 
   private URL selectStylesheet(
@@ -320,16 +339,4 @@ public final class XSTransformer implements XSProcessorType
       }
     };
   }
-
-  private XSLTTraceListener createTraceListener()
-    throws FileNotFoundException
-  {
-    final var traceListener = new XSLTTraceListener();
-    final var traceFile = this.request.traceFile().toFile();
-    LOG.debug("trace file: {}", traceFile);
-
-    final var traceLogger = new StandardLogger(traceFile);
-    traceListener.setOutputDestination(traceLogger);
-    return traceListener;
-  }
 }
@@ -18,38 +18,34 @@ package com.io7m.xstructural.vanilla.internal;
 
 import com.io7m.xstructural.api.XSProcessorRequest;
 import com.io7m.xstructural.api.XSValidationException;
-import com.io7m.xstructural.xml.SXMLResources;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
-import org.xml.sax.ErrorHandler;
-import org.xml.sax.InputSource;
 import org.xml.sax.Locator;
-import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
 
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
 import java.util.regex.Pattern;
 
 /**
- * A type attribute validator.
+ * <p>A type attribute validator.</p>
+ *
+ * <p>The validator does not parse documents itself; it is installed as the
+ * content handler of the validating reader used by {@link XSValidator} so
+ * that schema validation and type attribute validation share a single
+ * parse of the source document.</p>
  */
 
-public final class XSTypeValidator implements ContentHandler, ErrorHandler
+public final class XSTypeValidator implements ContentHandler
 {
   private static final Logger LOG =
     LoggerFactory.getLogger(XSTypeValidator.class);
   private static final Pattern WHITESPACE =
     Pattern.compile("\\s+");
 
-  private final SXMLResources resources;
-  private final XSProcessorRequest request;
   private final Path typeFile;
-  private final XSSAXParsers parsers;
   private Locator locator;
   private XSTypeAttributeDeclarationCollection types;
   private boolean failed;
@@ -58,60 +54,56 @@ public final class XSTypeValidator implements ContentHandler, ErrorHandler
   /**
    * A type attribute validator.
    *
-   * @param inResources The SXML resources
-   * @param inRequest   The transform request
+   * @param inRequest The transform request
    */
 
   public XSTypeValidator(
-    final SXMLResources inResources,
     final XSProcessorRequest inRequest)
   {
-    this.resources =
-      Objects.requireNonNull(inResources, "resources");
-    this.request =
-      Objects.requireNonNull(inRequest, "request");
-    this.parsers =
-      new XSSAXParsers();
+    Objects.requireNonNull(inRequest, "request");
+
     this.typeFile =
-      this.request.typeDescriptionFile()
+      inRequest.typeDescriptionFile()
         .orElseThrow();
   }
 
   /**
-   * Execute the validator.
+   * Load the type declarations and reset the validator state. This must be
+   * called before the validator is used as a content handler.
    *
    * @throws XSValidationException On errors
    */
 
-  public void execute()
+  public void start()
     throws XSValidationException
   {
+    LOG.info("Validating type attributes.");
+
     try {
-      LOG.info("Validating type attributes.");
-
-      this.types =
-        XSTypeLoader.read(this.typeFile);
-      final var parser =
-        this.parsers.createXMLReaderNonValidating();
-
-      try (var stream = Files.newInputStream(this.request.sourceFile())) {
-        final var source = new InputSource(stream);
-        source.setSystemId(this.request.sourceFile().toUri().toString());
-        parser.setContentHandler(this);
-        parser.setErrorHandler(this);
-        parser.parse(source);
-
-        if (this.failed) {
-          throw new XSValidationException(
-            "One or more validation errors occurred."
-          );
-        }
-
-        LOG.info("Validated {} type attributes.", this.checked);
-      }
+      this.types = XSTypeLoader.read(this.typeFile);
     } catch (final Exception e) {
       throw new XSValidationException(e);
     }
+    this.failed = false;
+    this.checked = 0;
+  }
+
+  /**
+   * @return {@code true} if one or more undeclared types were encountered
+   */
+
+  public boolean isFailed()
+  {
+    return this.failed;
+  }
+
+  /**
+   * @return The number of type attributes that were successfully checked
+   */
+
+  public int checked()
+  {
+    return this.checked;
   }
 
   @Override
@@ -223,48 +215,4 @@ public final class XSTypeValidator implements ContentHandler, ErrorHandler
   {
 
   }
-
-  @Override
-  public void warning(
-    final SAXParseException exception)
-  {
-    LOG.warn(
-      "{}:{}:{}: {}",
-      exception.getSystemId(),
-      Integer.valueOf(exception.getLineNumber()),
-      Integer.valueOf(exception.getColumnNumber()),
-      exception.getMessage()
-    );
-  }
-
-  @Override
-  public void error(
-    final SAXParseException exception)
-    throws SAXException
-  {
-    this.failed = true;
-    LOG.error(
-      "{}:{}:{}: {}",
-      exception.getSystemId(),
-      Integer.valueOf(exception.getLineNumber()),
-      Integer.valueOf(exception.getColumnNumber()),
-      exception.getMessage()
-    );
-  }
-
-  @Override
-  public void fatalError(
-    final SAXParseException exception)
-    throws SAXException
-  {
-    this.failed = true;
-    LOG.error(
-      "{}:{}:{}: {}",
-      exception.getSystemId(),
-      Integer.valueOf(exception.getLineNumber()),
-      Integer.valueOf(exception.getColumnNumber()),
-      exception.getMessage()
-    );
-    throw exception;
-  }
 }
@@ -18,17 +18,26 @@ package com.io7m.xstructural.vanilla.internal;
 
 import com.io7m.xstructural.api.XSProcessorRequest;
 import com.io7m.xstructural.api.XSProcessorType;
+import com.io7m.xstructural.api.XSSchemas;
 import com.io7m.xstructural.api.XSValidationException;
 import com.io7m.xstructural.xml.SXMLResources;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.InputSource;
 
+import java.net.URI;
 import java.nio.file.Files;
 import java.util.Objects;
+import java.util.Optional;
 
 /**
- * A validator.
+ * <p>A validator.</p>
+ *
+ * <p>If the request specifies a type description file, type attribute
+ * validation is performed during the same parse as schema validation, and
+ * the diagnostics of both are reported together. Because the validating
+ * parse processes XIncludes, type attributes in included documents are
+ * validated as well as those in the source document itself.</p>
  */
 
 public final class XSValidator implements XSProcessorType
@@ -37,7 +46,9 @@ public final class XSValidator implements XSProcessorType
     LoggerFactory.getLogger(XSValidator.class);
 
   private final SXMLResources resources;
+  private final XSSourceDocument source;
   private final XSProcessorRequest request;
+  private final Optional<XSTypeValidator> typeValidator;
 
   /**
    * A validator.
@@ -49,11 +60,31 @@ public final class XSValidator implements XSProcessorType
   public XSValidator(
     final SXMLResources inResources,
     final XSProcessorRequest inRequest)
+  {
+    this(inResources, new XSSourceDocument(inRequest), Optional.empty());
+  }
+
+  /**
+   * A validator.
+   *
+   * @param inResources The SXML resources
+   * @param inSource    The source document of the processor request
+   * @param inTypes     The type attribute validator, if any
+   */
+
+  public XSValidator(
+    final SXMLResources inResources,
+    final XSSourceDocument inSource,
+    final Optional<XSTypeValidator> inTypes)
   {
     this.resources =
       Objects.requireNonNull(inResources, "resources");
+    this.source =
+      Objects.requireNonNull(inSource, "source");
     this.request =
-      Objects.requireNonNull(inRequest, "request");
+      this.source.request();
+    this.typeValidator =
+      Objects.requireNonNull(inTypes, "types");
   }
 
   @Override
@@ -61,9 +92,76 @@ public final class XSValidator implements XSProcessorType
     throws XSValidationException
   {
     LOG.debug("validating source file");
+    this.checkRootNamespace();
     this.validate();
   }
 
+  /**
+   * Reject documents that cannot possibly be valid structural documents
+   * without performing a full validating parse. If the document header
+   * cannot even be parsed, the full validation is left to report the
+   * errors.
+   */
+
+  private void checkRootNamespace()
+    throws XSValidationException
+  {
+    final XSNamespaceSniffer.Result sniffed;
+    try {
+      sniffed = this.source.headerNamespaces();
+    } catch (final Exception e) {
+      return;
+    }
+
+    final var sourcePath = this.request.sourceFile();
+    final var rootNamespace = sniffed.rootNamespace();
+    if (rootNamespace.isPresent()) {
+      final var namespace = rootNamespace.get();
+      if (XSSchemas.namespaces().contains(namespace)) {
+        LOG.debug("root element namespace {}", namespace);
+        return;
+      }
+    }
+
+    final var found =
+      rootNamespace.map(URI::toString)
+        .orElse("(no namespace)");
+
+    LOG.error(
+      "{}:{}: root element {} has namespace {}, expected one of {}",
+      sourcePath,
+      Integer.valueOf(sniffed.rootLine()),
+      sniffed.rootName(),
+      found,
+      XSSchemas.namespaces()
+    );
+
+    final var lineSeparator = System.lineSeparator();
+    final var builder = new StringBuilder(128);
+    builder.append(
+      String.format(
+        "Document %s is not a valid structural document",
+        sourcePath
+      ));
+    builder.append(lineSeparator);
+    builder.append(
+      "  Problem: The root element is not in a structural namespace");
+    builder.append(lineSeparator);
+    builder.append("  Root element: ");
+    builder.append(sniffed.rootName());
+    builder.append(" (line ");
+    builder.append(sniffed.rootLine());
+    builder.append(')');
+    builder.append(lineSeparator);
+    builder.append("  Namespace: ");
+    builder.append(found);
+    builder.append(lineSeparator);
+    builder.append("  Expected one of: ");
+    builder.append(XSSchemas.namespaces());
+    builder.append(lineSeparator);
+    throw new XSValidationException(builder.toString());
+  }
+
   private void validate()
     throws XSValidationException
   {
@@ -88,10 +186,31 @@ public final class XSValidator implements XSProcessorType
           new XSErrorHandler(LoggerFactory.getLogger(
             XSValidator.class.getCanonicalName() + ".validation"));
 
+        /*
+         * The namespaces declared in the document are collected during the
+         * validating parse so that the transformer can determine which
+         * structural namespace the document uses without parsing it again.
+         * XInclude processing is enabled, so namespaces declared in
+         * included documents are also collected.
+         */
+
+        final var namespaces = new XSNamespaceSniffer.Collector();
         reader.setErrorHandler(errorHandler);
+        if (this.typeValidator.isPresent()) {
+          final var types = this.typeValidator.get();
+          types.start();
+          namespaces.setContentHandler(types);
+        }
+        reader.setContentHandler(namespaces);
         reader.parse(fileSource);
+        this.source.setNamespaces(namespaces.result());
+
+        final var typesFailed =
+          this.typeValidator.map(XSTypeValidator::isFailed)
+            .orElse(Boolean.FALSE)
+            .booleanValue();
 
-        if (errorHandler.isFailed()) {
+        if (errorHandler.isFailed() || typesFailed) {
           LOG.error("one or more validation errors occurred");
           throw new XSValidationException(
             String.format(
@@ -100,8 +219,15 @@ public final class XSValidator implements XSProcessorType
             )
           );
         }
+
+        this.typeValidator.ifPresent(types -> LOG.info(
+          "Validated {} type attributes.",
+          Integer.valueOf(types.checked())
+        ));
       }
 
+    } catch (final XSValidationException exception) {
+      throw exception;
     } catch (final Exception exception) {
       throw new XSValidationException(exception);
     }
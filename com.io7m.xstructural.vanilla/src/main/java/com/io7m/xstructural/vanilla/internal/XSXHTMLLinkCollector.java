@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xstructural.vanilla.internal;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>A content handler that collects the element IDs and links of an XHTML
+ * document.</p>
+ *
+ * <p>The collector is installed as the content handler of the reader that
+ * validates the document, so collecting links does not require any further
+ * parsing of the document.</p>
+ *
+ * <p>The collector distinguishes between links (the {@code href} attributes
+ * of {@code a} elements), and references, which are all {@code href} and
+ * {@code src} attributes of any element, including links, stylesheets, and
+ * images.</p>
+ */
+
+public final class XSXHTMLLinkCollector extends DefaultHandler
+{
+  private final HashSet<String> ids;
+  private final ArrayList<Link> links;
+  private final ArrayList<Link> references;
+  private Locator locator;
+
+  /**
+   * A content handler that collects the element IDs and links of an XHTML
+   * document.
+   */
+
+  public XSXHTMLLinkCollector()
+  {
+    this.ids = new HashSet<>();
+    this.links = new ArrayList<>();
+    this.references = new ArrayList<>();
+  }
+
+  /**
+   * @return The IDs of all elements in the document
+   */
+
+  public Set<String> ids()
+  {
+    return this.ids;
+  }
+
+  /**
+   * @return All links in the document, in document order
+   */
+
+  public List<Link> links()
+  {
+    return this.links;
+  }
+
+  /**
+   * @return All references to other files or elements in the document, in
+   * document order
+   */
+
+  public List<Link> references()
+  {
+    return this.references;
+  }
+
+  @Override
+  public void setDocumentLocator(
+    final Locator newLocator)
+  {
+    this.locator = newLocator;
+  }
+
+  @Override
+  public void startElement(
+    final String uri,
+    final String localName,
+    final String qName,
+    final Attributes attributes)
+  {
+    final var id = attributes.getValue("", "id");
+    if (id != null) {
+      this.ids.add(id);
+    }
+
+    final var cssClass = attributes.getValue("", "class");
+    final var line = this.locator == null ? -1 : this.locator.getLineNumber();
+
+    final var href = attributes.getValue("", "href");
+    if (href != null) {
+      final var link = new Link(href, cssClass, line);
+      if (Objects.equals(localName, "a")) {
+        this.links.add(link);
+      }
+      this.references.add(link);
+    }
+
+    final var src = attributes.getValue("", "src");
+    if (src != null) {
+      this.references.add(new Link(src, cssClass, line));
+    }
+  }
+
+  /**
+   * A link in a document.
+   *
+   * @param href     The link target
+   * @param cssClass The CSS class of the link, if any
+   * @param line     The line number of the link, or -1 if not known
+   */
+
+  public record Link(
+    String href,
+    String cssClass,
+    int line)
+  {
+    /**
+     * A link in a document.
+     *
+     * @param href     The link target
+     * @param cssClass The CSS class of the link, if any
+     * @param line     The line number of the link, or -1 if not known
+     */
+
+    public Link
+    {
+      Objects.requireNonNull(href, "href");
+    }
+
+    /**
+     * @return {@code true} if the link refers to an element in the same document
+     */
+
+    public boolean isLocal()
+    {
+      return this.href.startsWith("#");
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.xstructural.vanilla.internal;
+
+import com.io7m.xstructural.api.XSValidationException;
+import com.io7m.xstructural.xml.SXMLResources;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.util.Objects;
+
+/**
+ * <p>The compiled XHTML 1.1 schema.</p>
+ *
+ * <p>Compiling the schema requires loading and compiling all of the W3C XHTML
+ * modules, and this is expensive. Compiled schemas are immutable and
+ * thread-safe, so the schema is compiled once, on first use, and is then
+ * shared by every validator in the JVM.</p>
+ */
+
+public final class XSXHTMLSchemas
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XSXHTMLSchemas.class);
+
+  private static final Object LOCK = new Object();
+  private static volatile Schema SCHEMA;
+
+  private XSXHTMLSchemas()
+  {
+
+  }
+
+  /**
+   * Retrieve the compiled XHTML 1.1 schema, compiling it if it has not
+   * already been compiled. If compilation fails, or if any error is reported
+   * while compiling the schema, the failure is not cached and a later call
+   * will try again.
+   *
+   * @param resources The SXML resources
+   *
+   * @return The compiled schema
+   *
+   * @throws XSValidationException If errors are reported during compilation
+   * @throws Exception             On errors
+   */
+
+  public static Schema xhtml11(
+    final SXMLResources resources)
+    throws Exception
+  {
+    Objects.requireNonNull(resources, "resources");
+
+    final var existing = SCHEMA;
+    if (existing != null) {
+      return existing;
+    }
+
+    synchronized (LOCK) {
+      if (SCHEMA == null) {
+        SCHEMA = compile(resources);
+      }
+      return SCHEMA;
+    }
+  }
+
+  private static Schema compile(
+    final SXMLResources resources)
+    throws Exception
+  {
+    final var schemaUrl = resources.w3cXHTMLSchema();
+    try (var schemaStream = schemaUrl.openStream()) {
+      final var schemaSource = new InputSource();
+      schemaSource.setByteStream(schemaStream);
+      schemaSource.setSystemId(schemaUrl.toString());
+
+      LOG.debug("creating schema");
+      final var schemaFactory =
+        SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+
+      final var errorHandler =
+        new CompilationErrorHandler(new XSErrorHandler(LoggerFactory.getLogger(
+          XSXHTMLValidator.class.getCanonicalName() + ".schemaCompilation")));
+
+      schemaFactory.setErrorHandler(errorHandler);
+      schemaFactory.setResourceResolver(
+        new XSResourceResolver(resources)
+      );
+
+      /*
+       * The schema factory may recover from errors and return a schema that
+       * is missing some declarations. Such a schema must not be cached, as
+       * it would be used by every later validation in the JVM.
+       */
+
+      final var schema =
+        schemaFactory.newSchema(new SAXSource(schemaSource));
+
+      if (errorHandler.errors > 0) {
+        throw new XSValidationException(
+          String.format(
+            "One or more errors occurred compiling the XHTML schema %s",
+            schemaUrl)
+        );
+      }
+      return schema;
+    }
+  }
+
+  /**
+   * An error handler that counts the errors reported during compilation.
+   * Warnings are logged, but do not cause compilation to fail.
+   */
+
+  private static final class CompilationErrorHandler implements ErrorHandler
+  {
+    private final XSErrorHandler delegate;
+    private int errors;
+
+    CompilationErrorHandler(
+      final XSErrorHandler inDelegate)
+    {
+      this.delegate = Objects.requireNonNull(inDelegate, "delegate");
+    }
+
+    @Override
+    public void warning(
+      final SAXParseException exception)
+    {
+      this.delegate.warning(exception);
+    }
+
+    @Override
+    public void error(
+      final SAXParseException exception)
+    {
+      ++this.errors;
+      this.delegate.error(exception);
+    }
+
+    @Override
+    public void fatalError(
+      final SAXParseException exception)
+      throws SAXException
+    {
+      ++this.errors;
+      this.delegate.fatalError(exception);
+    }
+  }
+}
@@ -20,9 +20,6 @@ import com.io7m.xstructural.api.XSProcessorRequest;
 import com.io7m.xstructural.api.XSProcessorType;
 import com.io7m.xstructural.api.XSValidationException;
 import com.io7m.xstructural.xml.SXMLResources;
-import net.sf.saxon.tree.tiny.TinyAttributeImpl;
-import net.sf.saxon.tree.tiny.TinyElementImpl;
-import net.sf.saxon.xpath.XPathFactoryImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.InputSource;
@@ -33,50 +30,81 @@ import org.xml.sax.SAXNotSupportedException;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
-import javax.xml.transform.sax.SAXSource;
 import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
-import javax.xml.xpath.XPathExpressionException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
-import static javax.xml.xpath.XPathConstants.NODESET;
-
 /**
- * An XHTML validator.
+ * <p>An XHTML validator.</p>
+ *
+ * <p>Output files are validated concurrently, using at most
+ * {@link XSProcessorRequest#validationThreads()} threads. Each thread uses
+ * its own parser, and all threads share the same compiled schema.
+ * Diagnostics are buffered per file and logged in file name order once
+ * every file has been validated, so the output does not depend on the order
+ * in which the threads happen to complete.</p>
+ *
+ * <p>Once every file has been validated, links between files are checked
+ * against the IDs collected from all of the output files. Relative links are
+ * resolved against the file that contains them. The EPUB navigation files
+ * ({@code toc.xhtml} and {@code tocInternal.xhtml}) are not XHTML 1.1
+ * documents and are therefore not validated, but their IDs and links are
+ * collected with a non-validating parse so that links into and out of them
+ * are checked too.</p>
+ *
+ * <p>If the result documents of the request were captured in memory (see
+ * {@link XSResultDocuments#isUsedFor(XSProcessorRequest)}), the captured
+ * documents are validated instead of the files in the output directory.</p>
  */
 
 public final class XSXHTMLValidator implements XSProcessorType
 {
   private static final Logger LOG =
     LoggerFactory.getLogger(XSXHTMLValidator.class);
+  private static final Logger LOG_VALIDATION =
+    LoggerFactory.getLogger(
+      String.format("%s.validation", XSXHTMLValidator.class.getCanonicalName())
+    );
 
   private final SXMLResources resources;
   private final XSProcessorRequest request;
-  private final SAXParserFactory saxParsers;
+  private final XSResultDocuments resultDocuments;
 
   /**
    * A XHTML validator.
    *
    * @param inResources The SXML resources
    * @param inRequest   The processor request
+   * @param inResults   The result documents of the request
    */
 
   public XSXHTMLValidator(
     final SXMLResources inResources,
-    final XSProcessorRequest inRequest)
+    final XSProcessorRequest inRequest,
+    final XSResultDocuments inResults)
   {
     this.resources =
       Objects.requireNonNull(inResources, "resources");
     this.request =
       Objects.requireNonNull(inRequest, "request");
-    this.saxParsers =
-      SAXParserFactory.newInstance();
+    this.resultDocuments =
+      Objects.requireNonNull(inResults, "results");
   }
 
   @Override
@@ -85,155 +113,364 @@ public final class XSXHTMLValidator implements XSProcessorType
   {
     LOG.debug("validating XHTML output files");
 
-    var failed = false;
-
     try {
-      final var schemaUrl = this.resources.w3cXHTMLSchema();
-      try (var schemaStream = schemaUrl.openStream()) {
-        final var schemaSource = new InputSource();
-        schemaSource.setByteStream(schemaStream);
-        schemaSource.setSystemId(schemaUrl.toString());
-
-        LOG.debug("creating schema");
-        final var schemaFactory =
-          SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-
-        schemaFactory.setErrorHandler(
-          new XSErrorHandler(LoggerFactory.getLogger(
-            XSXHTMLValidator.class.getCanonicalName() + ".schemaCompilation"))
-        );
-        schemaFactory.setResourceResolver(
-          new XSResourceResolver(this.resources)
-        );
+      final var schema = XSXHTMLSchemas.xhtml11(this.resources);
+
+      final var all = this.listOutputFiles();
+
+      final var files =
+        all.stream()
+          .filter(path -> path.toString().endsWith(".xhtml"))
+          .filter(path -> !isNavigationFile(path))
+          .map(Path::toAbsolutePath)
+          .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+          .collect(Collectors.toList());
+
+      final var navigation =
+        all.stream()
+          .filter(XSXHTMLValidator::isNavigationFile)
+          .map(Path::toAbsolutePath)
+          .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+          .collect(Collectors.toList());
+
+      final var results = this.validateFiles(schema, files);
+
+      var failed = false;
+      for (final var result : results) {
+        result.diagnostics().replay();
+        failed |= result.diagnostics().isFailed();
+      }
 
-        final var schema =
-          schemaFactory.newSchema(new SAXSource(schemaSource));
-
-        try (var directoryStream = Files.list(this.request.outputDirectory())) {
-          final var files =
-            directoryStream
-              .filter(path -> path.toString().endsWith(".xhtml"))
-              .filter(path -> !path.toString().endsWith("toc.xhtml"))
-              .filter(path -> !path.toString().endsWith("tocInternal.xhtml"))
-              .map(Path::toAbsolutePath)
-              .collect(Collectors.toList());
-
-          final var logger =
-            LoggerFactory.getLogger(
-              String.format(
-                "%s.validation",
-                XSXHTMLValidator.class.getCanonicalName())
-            );
-
-          for (final var file : files) {
-            LOG.info("validate (xhtml 1.1) {}", file);
-            failed |= this.validateOneFile(schema, logger, file);
-            failed |= checkLinks(file);
-          }
-        }
+      final var linked = new ArrayList<>(results);
+      for (final var file : navigation) {
+        final var result = this.collectLinks(file);
+        result.diagnostics().replay();
+        failed |= result.diagnostics().isFailed();
+        linked.add(result);
       }
 
+      final var crossFile = checkCrossFileLinks(all, linked);
+      crossFile.replay();
+      failed |= crossFile.isFailed();
+
       if (failed) {
         LOG.error("one or more validation errors occurred");
         throw new XSValidationException(
           "The transformer produced invalid XHTML output"
         );
       }
+    } catch (final XSValidationException e) {
+      throw e;
     } catch (final Exception e) {
       throw new XSValidationException(e);
     }
   }
 
-  private static boolean checkLinks(
+  private static boolean isNavigationFile(
+    final Path path)
+  {
+    final var name = path.getFileName().toString();
+    return Objects.equals(name, "toc.xhtml")
+           || Objects.equals(name, "tocInternal.xhtml");
+  }
+
+  private List<Path> listOutputFiles()
+    throws IOException
+  {
+    if (XSResultDocuments.isUsedFor(this.request)) {
+      final var files = new ArrayList<Path>();
+      for (final var name : this.resultDocuments.names()) {
+        files.add(Path.of(this.resultDocuments.uriOf(name).orElseThrow()));
+      }
+      return files;
+    }
+
+    try (var directoryStream = Files.list(this.request.outputDirectory())) {
+      return directoryStream.collect(Collectors.toList());
+    }
+  }
+
+  private InputStream openOutputFile(
     final Path file)
     throws IOException
   {
-    var failed = false;
+    if (XSResultDocuments.isUsedFor(this.request)) {
+      return this.resultDocuments.nameOf(file)
+        .flatMap(this.resultDocuments::streamOf)
+        .orElseThrow(() -> new NoSuchFileException(file.toString()));
+    }
+    return Files.newInputStream(file);
+  }
 
-    final var data = Files.readAllBytes(file);
+  /**
+   * Check every relative link to an XHTML file against a global index of
+   * the IDs in all collected files. The index is built from the IDs already
+   * collected during validation, so no file is read again. Links are
+   * resolved against the file that contains them, so links such as
+   * {@code ../x.xhtml#id} and {@code ./x.xhtml} are checked. Links with a
+   * URI scheme, an authority, or an absolute path refer to resources outside
+   * of the output and are not checked.
+   */
 
-    try {
-      final var xpaths =
-        new XPathFactoryImpl();
-
-      final var expIds =
-        xpaths.newXPath()
-          .compile("//@id");
-      final var expAnchors =
-        xpaths.newXPath()
-          .compile("//*:a");
-
-      final var withIds =
-        (ArrayList<TinyAttributeImpl>) expIds.evaluate(
-          new InputSource(new ByteArrayInputStream(data)),
-          NODESET
-        );
+  private static XSDiagnosticBuffer checkCrossFileLinks(
+    final List<Path> all,
+    final List<FileResult> results)
+  {
+    final var diagnostics = new XSDiagnosticBuffer();
 
-      final var anchors =
-        (ArrayList<TinyElementImpl>) expAnchors.evaluate(
-          new InputSource(new ByteArrayInputStream(data)),
-          NODESET
-        );
+    final var present = new HashSet<Path>(all.size());
+    for (final var path : all) {
+      present.add(path.toAbsolutePath().normalize());
+    }
+
+    final var index = new HashMap<Path, Set<String>>(results.size());
+    for (final var result : results) {
+      index.put(
+        result.file().toAbsolutePath().normalize(),
+        result.links().ids()
+      );
+    }
+
+    var checked = 0;
+    for (final var result : results) {
+      final var file = result.file();
+      final var directory = file.toAbsolutePath().getParent();
+      for (final var link : result.links().links()) {
+        final var href = link.href();
+        if (link.isLocal()) {
+          continue;
+        }
+
+        final URI uri;
+        try {
+          uri = new URI(href);
+        } catch (final URISyntaxException e) {
+          diagnostics.error(
+            LOG,
+            "{}:{}: malformed link {}: {}",
+            file,
+            Integer.valueOf(link.line()),
+            href,
+            e.getMessage()
+          );
+          continue;
+        }
 
-      final var anchorsLocal = new ArrayList<TinyElementImpl>();
-      for (int index = 0; index < anchors.size(); ++index) {
-        final var anchor =
-          (TinyElementImpl) anchors.get(index);
-        final var hrefText =
-          anchor.getAttributeValue("", "href");
-        final var cssText =
-          anchor.getAttributeValue("", "class");
-
-        if (!checkFootnoteLink(file, cssText, hrefText)) {
-          failed = true;
+        final var path = uri.getPath();
+        if (!isRelativeDocumentLink(uri) || !path.endsWith(".xhtml")) {
+          continue;
         }
-        if (hrefText.startsWith("#")) {
-          anchorsLocal.add(anchor);
+
+        ++checked;
+        final var targetFile = directory.resolve(path).normalize();
+        if (!present.contains(targetFile)) {
+          diagnostics.error(
+            LOG,
+            "{}:{}: link to nonexistent file {}",
+            file,
+            Integer.valueOf(link.line()),
+            href
+          );
+          continue;
+        }
+
+        final var targetId = uri.getFragment();
+        if (targetId == null) {
+          continue;
+        }
+
+        final var targetIds = index.getOrDefault(targetFile, Set.of());
+        if (!targetIds.contains(targetId)) {
+          diagnostics.error(
+            LOG,
+            "{}:{}: unable to locate an element with id {} in {}",
+            file,
+            Integer.valueOf(link.line()),
+            targetId,
+            targetFile.getFileName()
+          );
         }
       }
+    }
 
-      LOG.info(
-        "checking the integrity of {} references",
-        Integer.valueOf(anchorsLocal.size())
+    if (!diagnostics.isFailed()) {
+      diagnostics.info(
+        LOG,
+        "checked the integrity of {} cross-file references",
+        Integer.valueOf(checked)
       );
+    }
+    return diagnostics;
+  }
 
-      for (final var anchor : anchorsLocal) {
-        final var hrefText =
-          anchor.getAttributeValue("", "href");
+  private static boolean isRelativeDocumentLink(
+    final URI uri)
+  {
+    final var path = uri.getPath();
+    return !uri.isAbsolute()
+           && uri.getRawAuthority() == null
+           && path != null
+           && !path.isEmpty()
+           && !path.startsWith("/");
+  }
 
-        final var hrefWithout = hrefText.substring(1);
-        if (!findId(withIds, hrefWithout)) {
-          LOG.error("unable to locate an element with id {}", hrefWithout);
-          failed = true;
+  private List<FileResult> validateFiles(
+    final Schema schema,
+    final List<Path> files)
+    throws Exception
+  {
+    final var threads =
+      Math.min(this.request.validationThreads(), files.size());
+
+    final var parsers =
+      ThreadLocal.withInitial(() -> createParserFactory(schema));
+
+    if (threads <= 1) {
+      final var results = new ArrayList<FileResult>(files.size());
+      for (final var file : files) {
+        results.add(this.validateFileAndLinks(parsers.get(), file));
+      }
+      return results;
+    }
+
+    LOG.debug("validating {} files on {} threads",
+              Integer.valueOf(files.size()),
+              Integer.valueOf(threads));
+
+    final var executor =
+      XSExecutors.newFixedThreadPool("xhtml-validator", threads);
+
+    try {
+      final var futures =
+        new ArrayList<Future<FileResult>>(files.size());
+      for (final var file : files) {
+        futures.add(executor.submit(
+          () -> this.validateFileAndLinks(parsers.get(), file)
+        ));
+      }
+
+      final var results = new ArrayList<FileResult>(files.size());
+      for (final var future : futures) {
+        try {
+          results.add(future.get());
+        } catch (final ExecutionException e) {
+          final var cause = e.getCause();
+          if (cause instanceof Exception ex) {
+            throw ex;
+          }
+          throw e;
         }
       }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private FileResult validateFileAndLinks(
+    final SAXParserFactory parsers,
+    final Path file)
+    throws IOException, ParserConfigurationException, SAXException
+  {
+    final var diagnostics = new XSDiagnosticBuffer();
+    diagnostics.info(LOG, "validate (xhtml 1.1) {}", file);
+    final var links = new XSXHTMLLinkCollector();
+    this.validateOneFile(parsers, diagnostics, links, file);
+    checkLinks(diagnostics, file, links);
+    return new FileResult(file, diagnostics, links);
+  }
+
+  /**
+   * Collect the IDs and links of a file that is not validated.
+   */
+
+  private FileResult collectLinks(
+    final Path file)
+    throws IOException, ParserConfigurationException, SAXException
+  {
+    final var diagnostics = new XSDiagnosticBuffer();
+    diagnostics.info(LOG, "collect links {}", file);
+    final var links = new XSXHTMLLinkCollector();
+    final var parsers = SAXParserFactory.newInstance();
+    parsers.setNamespaceAware(true);
+    parsers.setValidating(false);
+    this.validateOneFile(parsers, diagnostics, links, file);
+    return new FileResult(file, diagnostics, links);
+  }
+
+  private static SAXParserFactory createParserFactory(
+    final Schema schema)
+  {
+    final var parsers = SAXParserFactory.newInstance();
+    parsers.setSchema(schema);
+    parsers.setNamespaceAware(true);
+    parsers.setValidating(false);
+    return parsers;
+  }
+
+  private static void checkLinks(
+    final XSDiagnosticBuffer diagnostics,
+    final Path file,
+    final XSXHTMLLinkCollector collector)
+  {
+    var failed = false;
+
+    final var ids = collector.ids();
+    final var anchorsLocal = new ArrayList<XSXHTMLLinkCollector.Link>();
+    for (final var link : collector.links()) {
+      if (!checkFootnoteLink(diagnostics, file, link)) {
+        failed = true;
+      }
+      if (link.isLocal()) {
+        anchorsLocal.add(link);
+      }
+    }
 
-      if (!failed) {
-        LOG.info(
-          "checked the integrity of {} local references",
-          Integer.valueOf(anchorsLocal.size())
+    diagnostics.info(
+      LOG,
+      "checking the integrity of {} references",
+      Integer.valueOf(anchorsLocal.size())
+    );
+
+    for (final var anchor : anchorsLocal) {
+      final var hrefWithout = anchor.href().substring(1);
+      if (!ids.contains(hrefWithout)) {
+        diagnostics.error(
+          LOG,
+          "{}:{}: unable to locate an element with id {}",
+          file,
+          Integer.valueOf(anchor.line()),
+          hrefWithout
         );
+        failed = true;
       }
+    }
 
-      return failed;
-    } catch (final XPathExpressionException e) {
-      throw new IOException(e);
+    if (!failed) {
+      diagnostics.info(
+        LOG,
+        "checked the integrity of {} local references",
+        Integer.valueOf(anchorsLocal.size())
+      );
     }
   }
 
   private static boolean checkFootnoteLink(
+    final XSDiagnosticBuffer diagnostics,
     final Path file,
-    final String cssClassText,
-    final String hrefText)
+    final XSXHTMLLinkCollector.Link link)
   {
+    final var cssClassText = link.cssClass();
     if (cssClassText == null) {
       return true;
     }
 
+    final var hrefText = link.href();
     if (cssClassText.contains("stLinkFootnote")) {
-      if (!hrefText.startsWith("#")) {
+      if (!link.isLocal()) {
         if (!hrefText.contains(file.getFileName().toString())) {
-          LOG.error(
+          diagnostics.error(
+            LOG,
             "a footnote link must link to the same file name ({})",
             hrefText);
           return false;
@@ -243,42 +480,23 @@ public final class XSXHTMLValidator implements XSProcessorType
     return true;
   }
 
-  private static boolean findId(
-    final ArrayList<TinyAttributeImpl> withIds,
-    final String idName)
-  {
-    for (int k = 0; k < withIds.size(); ++k) {
-      final var node = withIds.get(k);
-      final var idText = node.getStringValue();
-      if (idName.equals(idText)) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  private boolean validateOneFile(
-    final Schema schema,
-    final Logger logger,
+  private void validateOneFile(
+    final SAXParserFactory parsers,
+    final XSDiagnosticBuffer diagnostics,
+    final XSXHTMLLinkCollector links,
     final Path file)
     throws IOException, ParserConfigurationException, SAXException
   {
-    try (var sourceStream = Files.newInputStream(file)) {
+    try (var sourceStream = this.openOutputFile(file)) {
       final var fileSource = new InputSource();
       fileSource.setByteStream(sourceStream);
       fileSource.setSystemId(file.toUri().toString());
 
-      final var errorHandler =
-        new XSErrorHandler(logger);
-
-      this.saxParsers.setSchema(schema);
-      this.saxParsers.setNamespaceAware(true);
-      this.saxParsers.setValidating(false);
-
-      final var parser = this.saxParsers.newSAXParser();
+      final var parser = parsers.newSAXParser();
       final var reader = parser.getXMLReader();
 
-      reader.setErrorHandler(errorHandler);
+      reader.setErrorHandler(diagnostics.errorHandler(LOG_VALIDATION));
+      reader.setContentHandler(links);
 
       try {
         reader.setProperty(
@@ -300,7 +518,19 @@ public final class XSXHTMLValidator implements XSProcessorType
       });
 
       reader.parse(fileSource);
-      return errorHandler.isFailed();
+    }
+  }
+
+  private record FileResult(
+    Path file,
+    XSDiagnosticBuffer diagnostics,
+    XSXHTMLLinkCollector links)
+  {
+    private FileResult
+    {
+      Objects.requireNonNull(file, "file");
+      Objects.requireNonNull(diagnostics, "diagnostics");
+      Objects.requireNonNull(links, "links");
     }
   }
 }
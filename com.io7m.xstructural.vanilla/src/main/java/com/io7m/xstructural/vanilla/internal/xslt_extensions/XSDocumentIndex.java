@@ -0,0 +1,334 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.vanilla.internal.xslt_extensions;
+
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.NamespaceUri;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NodeKindTest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * <p>An index of the structural elements of a document.</p>
+ *
+ * <p>The index is built in a single traversal of a tree, and records the
+ * numbers, owning section, and section order of every element in the tree,
+ * along with the link targets of the tree by ID. The numbers are identical
+ * to those that {@code xsl:number level="multiple"} would produce for each
+ * element individually, and the order numbers are identical to those that
+ * {@code xsl:number level="any"} would produce when counting sections and
+ * subsections. An index is built at most once per tree, and is
+ * attached to the tree so that it is discarded along with it.</p>
+ */
+
+public final class XSDocumentIndex
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(XSDocumentIndex.class);
+
+  /**
+   * The namespace of the extension functions backed by the index.
+   */
+
+  public static final String NAMESPACE =
+    "urn:com.io7m.xstructural.index";
+
+  private static final String USER_DATA_KEY =
+    XSDocumentIndex.class.getCanonicalName();
+
+  private static final Set<String> ITEMS =
+    Set.of("Section", "Subsection", "Paragraph", "FormalItem");
+
+  private static final Set<String> TARGETS =
+    Set.of("Section", "Subsection", "Paragraph", "FormalItem", "Footnote");
+
+  private final Map<NodeInfo, Entry> entries;
+  private final Map<String, NodeInfo> targets;
+  private final List<NodeInfo> sections;
+  private int order;
+
+  private XSDocumentIndex()
+  {
+    this.entries = new HashMap<>();
+    this.targets = new HashMap<>();
+    this.sections = new ArrayList<>();
+  }
+
+  /**
+   * Retrieve the index of the tree containing the given node, building it if
+   * necessary.
+   *
+   * @param node The node
+   *
+   * @return The index of the tree containing {@code node}
+   */
+
+  public static XSDocumentIndex of(
+    final NodeInfo node)
+  {
+    Objects.requireNonNull(node, "node");
+
+    final var tree = node.getTreeInfo();
+    synchronized (tree) {
+      final var existing = tree.getUserData(USER_DATA_KEY);
+      if (existing instanceof XSDocumentIndex index) {
+        return index;
+      }
+
+      LOG.debug("indexing tree {}", tree.getRootNode().getSystemId());
+      final var index = new XSDocumentIndex();
+      index.visitChildren(tree.getRootNode(), null, "", "", "");
+      tree.setUserData(USER_DATA_KEY, index);
+      return index;
+    }
+  }
+
+  private static String join(
+    final String prefix,
+    final String suffix)
+  {
+    if (prefix.isEmpty()) {
+      return suffix;
+    }
+    if (suffix.isEmpty()) {
+      return prefix;
+    }
+    return prefix + "." + suffix;
+  }
+
+  private void visitChildren(
+    final NodeInfo parent,
+    final NodeInfo owner,
+    final String sectionNumber,
+    final String subsectionNumber,
+    final String itemNumber)
+  {
+    int sectionCount = 0;
+    int subsectionCount = 0;
+    int itemCount = 0;
+    int paragraphCount = 0;
+
+    final var children =
+      parent.iterateAxis(AxisInfo.CHILD, NodeKindTest.ELEMENT);
+
+    for (var child = children.next(); child != null; child = children.next()) {
+      final var name = child.getLocalPart();
+      final var isSection = "Section".equals(name);
+      final var isSubsection = "Subsection".equals(name);
+      final var isItem = ITEMS.contains(name);
+      final var isParagraph =
+        "Paragraph".equals(name) || "FormalItem".equals(name);
+
+      var childSection = sectionNumber;
+      if (isSection) {
+        ++sectionCount;
+        childSection = join(sectionNumber, Integer.toString(sectionCount));
+      }
+      var childSubsection = subsectionNumber;
+      if (isSubsection) {
+        ++subsectionCount;
+        childSubsection =
+          join(subsectionNumber, Integer.toString(subsectionCount));
+      }
+      var childItem = itemNumber;
+      if (isItem) {
+        ++itemCount;
+        childItem = join(itemNumber, Integer.toString(itemCount));
+      }
+      final var paragraphNumber = Integer.toString(paragraphCount + 1);
+      if (isParagraph) {
+        ++paragraphCount;
+      }
+
+      final NodeInfo childOwner;
+      if (isSection || owner == null) {
+        childOwner = child;
+      } else {
+        childOwner = owner;
+      }
+
+      if (isSection || isSubsection) {
+        ++this.order;
+      }
+
+      var sectionIndex = -1;
+      if (isSection) {
+        sectionIndex = this.sections.size();
+        this.sections.add(child);
+      }
+
+      final var id = child.getAttributeValue(NamespaceUri.NULL, "id");
+      if (id != null && TARGETS.contains(name)) {
+        this.targets.putIfAbsent(id, child);
+      }
+
+      this.entries.put(child, new Entry(
+        childOwner,
+        childSection,
+        join(sectionNumber, childSubsection),
+        childItem,
+        paragraphNumber,
+        this.order == 0 ? "" : Integer.toString(this.order),
+        sectionIndex
+      ));
+
+      this.visitChildren(
+        child,
+        childOwner,
+        childSection,
+        childSubsection,
+        childItem
+      );
+    }
+  }
+
+  private Entry entryOf(
+    final NodeInfo node)
+  {
+    final var entry = this.entries.get(node);
+    if (entry == null) {
+      throw new IllegalArgumentException(
+        "Node %s is not an element of the indexed tree"
+          .formatted(node.getDisplayName())
+      );
+    }
+    return entry;
+  }
+
+  /**
+   * @param node   An element in the indexed tree
+   * @param scheme The numbering scheme
+   *
+   * @return The number of the given element in the given numbering scheme
+   */
+
+  public String numberOf(
+    final NodeInfo node,
+    final XSNumberingScheme scheme)
+  {
+    final var entry = this.entryOf(node);
+    return switch (scheme) {
+      case SECTION -> entry.sectionNumber();
+      case SUBSECTION -> entry.subsectionNumber();
+      case ITEM -> entry.itemNumber();
+      case PARAGRAPH -> entry.paragraphNumber();
+      case ORDER -> entry.orderNumber();
+    };
+  }
+
+  /**
+   * @param node An element in the indexed tree
+   *
+   * @return The nearest section enclosing the given element (including the
+   * element itself), or the root element if there is no such section
+   */
+
+  public NodeInfo ownerOf(
+    final NodeInfo node)
+  {
+    return this.entryOf(node).owner();
+  }
+
+  /**
+   * @param id The ID of a link target
+   *
+   * @return The section, subsection, paragraph, formal item, or footnote
+   * with the given ID, if any
+   */
+
+  public Optional<NodeInfo> targetOf(
+    final String id)
+  {
+    return Optional.ofNullable(this.targets.get(id));
+  }
+
+  /**
+   * @param node A section in the indexed tree
+   *
+   * @return The section that precedes the given section in document order,
+   * if any
+   */
+
+  public Optional<NodeInfo> sectionPreviousOf(
+    final NodeInfo node)
+  {
+    return this.sectionAt(this.sectionIndexOf(node) - 1);
+  }
+
+  /**
+   * @param node A section in the indexed tree
+   *
+   * @return The section that follows the given section in document order,
+   * if any
+   */
+
+  public Optional<NodeInfo> sectionNextOf(
+    final NodeInfo node)
+  {
+    return this.sectionAt(this.sectionIndexOf(node) + 1);
+  }
+
+  private int sectionIndexOf(
+    final NodeInfo node)
+  {
+    final var index = this.entryOf(node).sectionIndex();
+    if (index < 0) {
+      throw new IllegalArgumentException(
+        "Node %s is not a section".formatted(node.getDisplayName())
+      );
+    }
+    return index;
+  }
+
+  private Optional<NodeInfo> sectionAt(
+    final int index)
+  {
+    if (index >= 0 && index < this.sections.size()) {
+      return Optional.of(this.sections.get(index));
+    }
+    return Optional.empty();
+  }
+
+  private record Entry(
+    NodeInfo owner,
+    String sectionNumber,
+    String subsectionNumber,
+    String itemNumber,
+    String paragraphNumber,
+    String orderNumber,
+    int sectionIndex)
+  {
+    private Entry
+    {
+      Objects.requireNonNull(owner, "owner");
+      Objects.requireNonNull(sectionNumber, "sectionNumber");
+      Objects.requireNonNull(subsectionNumber, "subsectionNumber");
+      Objects.requireNonNull(itemNumber, "itemNumber");
+      Objects.requireNonNull(paragraphNumber, "paragraphNumber");
+      Objects.requireNonNull(orderNumber, "orderNumber");
+    }
+  }
+}
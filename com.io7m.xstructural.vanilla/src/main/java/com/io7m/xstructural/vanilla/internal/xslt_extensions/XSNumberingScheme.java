@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.vanilla.internal.xslt_extensions;
+
+/**
+ * The numbering schemes recorded in a document index.
+ */
+
+public enum XSNumberingScheme
+{
+  /**
+   * Sections numbered by their enclosing sections, such as "1.2".
+   */
+
+  SECTION,
+
+  /**
+   * Subsections numbered by their enclosing subsections, prefixed with the
+   * number of the nearest enclosing section, such as "1.2.3".
+   */
+
+  SUBSECTION,
+
+  /**
+   * Sections, subsections, paragraphs, and formal items numbered together,
+   * such as "1.2.3.4".
+   */
+
+  ITEM,
+
+  /**
+   * Paragraphs and formal items numbered together among their siblings,
+   * such as "4".
+   */
+
+  PARAGRAPH,
+
+  /**
+   * Sections and subsections numbered together, consecutively in document
+   * order regardless of depth, such as "7".
+   */
+
+  ORDER;
+
+  /**
+   * @param name The name of a scheme as used in stylesheets
+   *
+   * @return The scheme with the given name
+   */
+
+  public static XSNumberingScheme ofName(
+    final String name)
+  {
+    return switch (name) {
+      case "section" -> SECTION;
+      case "subsection" -> SUBSECTION;
+      case "item" -> ITEM;
+      case "paragraph" -> PARAGRAPH;
+      case "order" -> ORDER;
+      default -> throw new IllegalArgumentException(
+        "Unrecognized numbering scheme: %s".formatted(name)
+      );
+    };
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.vanilla.internal.xslt_extensions;
+
+import net.sf.saxon.s9api.ExtensionFunction;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.SequenceType;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmValue;
+
+import static net.sf.saxon.s9api.ItemType.ANY_NODE;
+import static net.sf.saxon.s9api.OccurrenceIndicator.ONE;
+
+/**
+ * The {@code ownerOf} extension function.
+ *
+ * @see XSDocumentIndex#ownerOf(net.sf.saxon.om.NodeInfo)
+ */
+
+public final class XSOwnerOfExtensionFunction
+  implements ExtensionFunction
+{
+  /**
+   * The {@code ownerOf} extension function.
+   */
+
+  public XSOwnerOfExtensionFunction()
+  {
+
+  }
+
+  @Override
+  public QName getName()
+  {
+    return new QName(XSDocumentIndex.NAMESPACE, "ownerOf");
+  }
+
+  @Override
+  public SequenceType getResultType()
+  {
+    return SequenceType.makeSequenceType(ANY_NODE, ONE);
+  }
+
+  @Override
+  public SequenceType[] getArgumentTypes()
+  {
+    return new SequenceType[]{SequenceType.makeSequenceType(ANY_NODE, ONE)};
+  }
+
+  @Override
+  public XdmValue call(
+    final XdmValue[] arguments)
+    throws SaxonApiException
+  {
+    final var node =
+      ((XdmNode) arguments[0].itemAt(0)).getUnderlyingNode();
+
+    try {
+      return new XdmNode(XSDocumentIndex.of(node).ownerOf(node));
+    } catch (final IllegalArgumentException e) {
+      throw new SaxonApiException(e.getMessage(), e);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2021 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.xstructural.vanilla.internal.xslt_extensions;
+
+import net.sf.saxon.s9api.ExtensionFunction;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SequenceType;
+import net.sf.saxon.s9api.XdmEmptySequence;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmValue;
+
+import static net.sf.saxon.s9api.ItemType.ANY_NODE;
+import static net.sf.saxon.s9api.ItemType.STRING;
+import static net.sf.saxon.s9api.OccurrenceIndicator.ONE;
+import static net.sf.saxon.s9api.OccurrenceIndicator.ZERO_OR_ONE;
+
+/**
+ * The {@code targetOf} extension function. The first argument is any node in
+ * the tree that is to be searched, and the second argument is the ID of the
+ * link target.
+ *
+ * @see XSDocumentIndex#targetOf(String)
+ */
+
+public final class XSTargetOfExtensionFunction
+  implements ExtensionFunction
+{
+  /**
+   * The {@code targetOf} extension function.
+   */
+
+  public XSTargetOfExtensionFunction()
+  {
+
+  }
+
+  @Override
+  public QName getName()
+  {
+    return new QName(XSDocumentIndex.NAMESPACE, "targetOf");
+  }
+
+  @Override
+  public SequenceType getResultType()
+  {
+    return SequenceType.makeSequenceType(ANY_NODE, ZERO_OR_ONE);
+  }
+
+  @Override
+  public SequenceType[] getArgumentTypes()
+  {
+    return new SequenceType[]{
+      SequenceType.makeSequenceType(ANY_NODE, ONE),
+      SequenceType.makeSequenceType(STRING, ONE),
+    };
+  }
+
+  @Override
+  public XdmValue call(
+    final XdmValue[] arguments)
+  {
+    final var node =
+      ((XdmNode) arguments[0].itemAt(0)).getUnderlyingNode();
+    final var id =
+      arguments[1].itemAt(0).getStringValue();
+
+    return XSDocumentIndex.of(node)
+      .targetOf(id)
+      .<XdmValue>map(XdmNode::new)
+      .orElse(XdmEmptySequence.getInstance());
+  }
+}
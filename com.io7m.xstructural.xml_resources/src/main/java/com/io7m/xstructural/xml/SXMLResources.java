@@ -269,6 +269,15 @@ public final class SXMLResources
   }
 
   /**
+   * The xstructural 8.0 EPUB package XSL stylesheet. The processor no longer
+   * uses this stylesheet, because the package file is produced by the main
+   * EPUB stylesheet. The stylesheet is not self-contained: like the main
+   * EPUB stylesheet, it requires the {@code mimeOf} extension function in
+   * the {@code urn:com.io7m.xstructural.mime} namespace, which is provided
+   * by the vanilla processor. The section file names in the package file
+   * are only guaranteed to match those produced by a separate run of the
+   * main EPUB stylesheet if both transforms number documents identically.
+   *
    * @return The xstructural 8.0 EPUB package XSL stylesheet
    *
    * @since 1.3.0
@@ -19,6 +19,7 @@
 <xsl:stylesheet xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
                 xmlns:xsd="http://www.w3.org/2001/XMLSchema"
                 xmlns:xdoc="http://www.pnp-software.com/XSLTdoc"
+                xmlns:xsx="urn:com.io7m.xstructural.index"
                 xmlns:dc="http://purl.org/dc/elements/1.1/"
                 xmlns="http://www.w3.org/1999/xhtml"
                 exclude-result-prefixes="#all"
@@ -248,7 +249,7 @@
                             select="."/>
           </xsl:call-template>
         </xsl:attribute>
-        <xsl:value-of select="count(preceding-sibling::*:Paragraph|preceding-sibling::*:FormalItem) + 1"/>
+        <xsl:value-of select="xsx:numberOf(., 'paragraph')"/>
       </xsl:element>
     </xsl:variable>
 
@@ -364,13 +365,12 @@
               </xsl:if>
 
               <ul>
-                <xsl:apply-templates select="*:Section|*:Subsection"
-                                     mode="xstructural.tableOfContents">
-                  <xsl:with-param name="depthCurrent"
-                                  select="0"/>
+                <xsl:call-template name="xstructural.tableOfContents.itemsOf">
+                  <xsl:with-param name="node"
+                                  select="."/>
                   <xsl:with-param name="depthMaximum"
                                   select="$maximumDepth"/>
-                </xsl:apply-templates>
+                </xsl:call-template>
               </ul>
             </div>
           </xsl:with-param>
@@ -19,6 +19,7 @@
 <xsl:stylesheet xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
                 xmlns:xsd="http://www.w3.org/2001/XMLSchema"
                 xmlns:xdoc="http://www.pnp-software.com/XSLTdoc"
+                xmlns:xsx="urn:com.io7m.xstructural.index"
                 xmlns:ncx="http://www.daisy.org/z3986/2005/ncx/"
                 xmlns:dc="http://purl.org/dc/elements/1.1/"
                 xmlns="http://www.w3.org/1999/xhtml"
@@ -28,6 +29,7 @@
   <xsl:import href="xstructural-links.xsl"/>
   <xsl:import href="xstructural-blocks-epub.xsl"/>
   <xsl:import href="xstructural-outputs.xsl"/>
+  <xsl:import href="xstructural-epub-manifest.xsl"/>
 
   <!--                           -->
   <!-- Top-level EPUB templates. -->
@@ -44,31 +46,24 @@
 
     <xsl:variable name="owningSection"
                   as="element()">
-      <xsl:choose>
-        <xsl:when test="$target/ancestor-or-self::*:Section[1]">
-          <xsl:sequence select="$target/ancestor-or-self::*:Section[1]"/>
-        </xsl:when>
-        <xsl:otherwise>
-          <xsl:sequence select="$target/ancestor::*:Document"/>
-        </xsl:otherwise>
-      </xsl:choose>
+      <xsl:call-template name="xstructural.links.ownerOf">
+        <xsl:with-param name="target"
+                        select="$target"/>
+      </xsl:call-template>
     </xsl:variable>
 
     <xsl:variable name="owningFile"
                   select="concat(generate-id($owningSection),'.xhtml')"/>
 
-    <xsl:variable name="completeHref">
-      <xsl:choose>
-        <xsl:when test="$target/attribute::id">
-          <xsl:value-of select="concat($owningFile,'#id_',$target/attribute::id[1])"/>
-        </xsl:when>
-        <xsl:otherwise>
-          <xsl:value-of select="concat($owningFile,'#',generate-id($target))"/>
-        </xsl:otherwise>
-      </xsl:choose>
+    <xsl:variable name="fragment"
+                  as="xsd:string">
+      <xsl:call-template name="xstructural.links.fragmentOf">
+        <xsl:with-param name="target"
+                        select="$target"/>
+      </xsl:call-template>
     </xsl:variable>
 
-    <xsl:value-of select="$completeHref"/>
+    <xsl:value-of select="concat($owningFile,$fragment)"/>
   </xsl:template>
 
   <xsl:template match="*:Document">
@@ -85,12 +80,29 @@
       </xsl:otherwise>
     </xsl:choose>
 
+    <xsl:variable name="resourceItems"
+                  as="element()*">
+      <xsl:call-template name="xstructural.epub.resourceItems">
+        <xsl:with-param name="sourceDirectory"
+                        select="$xstructural.sourceDirectory"/>
+      </xsl:call-template>
+    </xsl:variable>
+
     <xsl:call-template name="xstructural.epub.colophon"/>
     <xsl:call-template name="xstructural.epub.cover"/>
-    <xsl:call-template name="xstructural.epub.resources"/>
+    <xsl:call-template name="xstructural.epub.resources">
+      <xsl:with-param name="resourceItems"
+                      select="$resourceItems"/>
+    </xsl:call-template>
     <xsl:call-template name="xstructural.epub.tableOfContentsInvisibleXHTML"/>
     <xsl:call-template name="xstructural.epub.tableOfContentsNCX"/>
     <xsl:call-template name="xstructural.epub.tableOfContentsXHTML"/>
+    <xsl:call-template name="xstructural.epub.package">
+      <xsl:with-param name="outputFile"
+                      select="concat($xstructural.outputDirectory,'/epub/content.opf')"/>
+      <xsl:with-param name="resourceItems"
+                      select="$resourceItems"/>
+    </xsl:call-template>
   </xsl:template>
 
   <xdoc:doc>
@@ -158,10 +170,15 @@
   </xsl:template>
 
   <xdoc:doc>
-    Generate a list of resources for the document.
+    Generate a list of resources for the document. The list names the same files as the given manifest items, so the
+    files copied into the EPUB are exactly the files listed in the package file.
   </xdoc:doc>
 
   <xsl:template name="xstructural.epub.resources">
+    <xsl:param name="resourceItems"
+               as="element()*"
+               required="yes"/>
+
     <xsl:variable name="resourcesFilePath"
                   as="xsd:string"
                   select="concat($xstructural.outputDirectory,'/epub-resources.txt')"/>
@@ -172,29 +189,10 @@
 
     <xsl:result-document href="{$resourcesFilePath}"
                          format="xstructural.textOutput">
-      <xsl:for-each select=".//*:Image">
-        <xsl:value-of select="@source"/>
+      <xsl:for-each select="$resourceItems">
+        <xsl:value-of select="substring-after(@href,'OEBPS/')"/>
         <xsl:text>&#x000a;</xsl:text>
       </xsl:for-each>
-
-      <xsl:value-of select=".//*:Metadata/*:MetaProperty[@name='com.io7m.xstructural.epub.cover']"/>
-      <xsl:text>&#x000a;</xsl:text>
-
-      <xsl:for-each select=".//*:Metadata/*:MetaProperty[@name='com.io7m.xstructural.epub.resource']">
-        <xsl:value-of select="."/>
-        <xsl:text>&#x000a;</xsl:text>
-      </xsl:for-each>
-
-      <xsl:for-each select=".//*:Metadata/*:MetaProperty[@name='com.io7m.xstructural.epub.resource-list']">
-        <xsl:variable name="resourceFile"
-                      select="concat($xstructural.sourceDirectory, .)"/>
-        <xsl:variable name="resourceFileText"
-                      select="replace(unparsed-text($resourceFile),'\r','')"/>
-        <xsl:for-each select="$resourceFileText">
-          <xsl:value-of select="."/>
-          <xsl:text>&#x000a;</xsl:text>
-        </xsl:for-each>
-      </xsl:for-each>
     </xsl:result-document>
   </xsl:template>
 
@@ -438,10 +436,8 @@
                required="yes"/>
 
     <xsl:variable name="preceding"
-                  as="xsd:integer">
-      <xsl:number count="*:Section|*:Subsection"
-                  level="any"/>
-    </xsl:variable>
+                  as="xsd:integer"
+                  select="xsd:integer(xsx:numberOf(., 'order'))"/>
 
     <xsl:variable name="number"
                   as="xsd:integer"
@@ -18,30 +18,13 @@
 
 <xsl:stylesheet xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
                 xmlns:xsd="http://www.w3.org/2001/XMLSchema"
+                xmlns:xdoc="http://www.pnp-software.com/XSLTdoc"
                 xmlns:si="urn:com.io7m.structural.index:1:0"
                 xmlns="http://www.w3.org/1999/xhtml"
                 exclude-result-prefixes="#all"
                 version="2.0">
 
-  <xsl:template name="xstructural.fileOf"
-                as="xsd:string">
-    <xsl:param name="target"
-               as="element()"/>
-
-    <xsl:variable name="targetOwner"
-                  as="element()">
-      <xsl:choose>
-        <xsl:when test="count($target/ancestor-or-self::*:Section) > 0">
-          <xsl:sequence select="$target/ancestor-or-self::*:Section[1]"/>
-        </xsl:when>
-        <xsl:when test="count($target/ancestor-or-self::*:Document) > 0">
-          <xsl:sequence select="$target/ancestor-or-self::*:Document[1]"/>
-        </xsl:when>
-      </xsl:choose>
-    </xsl:variable>
-
-    <xsl:value-of select="concat(generate-id($targetOwner), '.xhtml')"/>
-  </xsl:template>
+  <xsl:import href="xstructural-links.xsl"/>
 
   <xsl:template match="*:Document">
     <xsl:result-document href="xstructural-index.xml"
@@ -73,7 +56,7 @@
     <xsl:if test="@id">
       <xsl:element name="si:Item">
         <xsl:attribute name="File">
-          <xsl:call-template name="xstructural.fileOf">
+          <xsl:call-template name="xstructural.links.fileOf">
             <xsl:with-param name="target"
                             select="."/>
           </xsl:call-template>
@@ -18,6 +18,7 @@
 
 <xsl:stylesheet xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
                 xmlns:xsd="http://www.w3.org/2001/XMLSchema"
+                xmlns:xsx="urn:com.io7m.xstructural.index"
                 xmlns="http://www.w3.org/1999/xhtml"
                 exclude-result-prefixes="#all"
                 version="2.0">
@@ -42,14 +43,14 @@
       <xsl:attribute name="href">
         <xsl:call-template name="xstructural.links.anchorOf">
           <xsl:with-param name="target"
-                          select="key('xstructural.links.key',@target)"/>
+                          select="xsx:targetOf(.,@target)"/>
         </xsl:call-template>
       </xsl:attribute>
 
       <xsl:attribute name="title">
         <xsl:call-template name="xstructural.titles.anchorTitleFor">
           <xsl:with-param name="node"
-                          select="key('xstructural.links.key',@target)"/>
+                          select="xsx:targetOf(.,@target)"/>
         </xsl:call-template>
       </xsl:attribute>
 
@@ -30,8 +30,4 @@
            match="/*:Document//*:Footnote"
            use="@id"/>
 
-  <xsl:key name="xstructural.links.key"
-           match="/*:Document//(*:Paragraph|*:FormalItem|*:Section|*:Subsection|*:Footnote)"
-           use="@id"/>
-
 </xsl:stylesheet>
@@ -19,7 +19,9 @@
 <xsl:stylesheet xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
                 xmlns:xsd="http://www.w3.org/2001/XMLSchema"
                 xmlns:xdoc="http://www.pnp-software.com/XSLTdoc"
-                version="2.0">
+                xmlns:xsx="urn:com.io7m.xstructural.index"
+                exclude-result-prefixes="#all"
+                version="3.0">
 
   <xdoc:doc>
     Return the link target of the given node as it appears in the target XHTML document. That is, the text that, when
@@ -37,4 +39,62 @@
     </xsl:message>
   </xsl:template>
 
+  <xdoc:doc>
+    Return the element that owns the given node. This is the nearest enclosing section (including the node itself),
+    or the document element if the node is not inside a section. Output formats that split documents into several
+    files produce one file per owner.
+  </xdoc:doc>
+
+  <xsl:template name="xstructural.links.ownerOf"
+                as="element()">
+    <xsl:param name="target"
+               as="element()"
+               required="yes"/>
+    <xsl:sequence select="xsx:ownerOf($target)"/>
+  </xsl:template>
+
+  <xdoc:doc>
+    Return the name of the file that contains the given node in output formats that produce one file per owner. The
+    owner of the node is found using the document index, so this takes constant time regardless of the size of the
+    document.
+  </xdoc:doc>
+
+  <xsl:template name="xstructural.links.fileOf"
+                as="xsd:string">
+    <xsl:param name="target"
+               as="element()"
+               required="yes"/>
+
+    <xsl:variable name="targetOwner"
+                  as="element()">
+      <xsl:call-template name="xstructural.links.ownerOf">
+        <xsl:with-param name="target"
+                        select="$target"/>
+      </xsl:call-template>
+    </xsl:variable>
+
+    <xsl:value-of select="concat(generate-id($targetOwner), '.xhtml')"/>
+  </xsl:template>
+
+  <xdoc:doc>
+    Return the link target of the given node, relative to the file that owns it. That is, the text that, when appended
+    to the name of the owning file, will yield a link directly to the target node.
+  </xdoc:doc>
+
+  <xsl:template name="xstructural.links.fragmentOf"
+                as="xsd:string">
+    <xsl:param name="target"
+               as="element()"
+               required="yes"/>
+
+    <xsl:choose>
+      <xsl:when test="$target/attribute::id">
+        <xsl:value-of select="concat('#id_',$target/attribute::id[1])"/>
+      </xsl:when>
+      <xsl:otherwise>
+        <xsl:value-of select="concat('#',generate-id($target))"/>
+      </xsl:otherwise>
+    </xsl:choose>
+  </xsl:template>
+
 </xsl:stylesheet>
\ No newline at end of file
@@ -20,9 +20,10 @@
                 xmlns:xsd="http://www.w3.org/2001/XMLSchema"
                 xmlns:xdoc="http://www.pnp-software.com/XSLTdoc"
                 xmlns:s="urn:com.io7m.structural:8:0"
+                xmlns:xsx="urn:com.io7m.xstructural.index"
                 xmlns="http://www.w3.org/1999/xhtml"
                 exclude-result-prefixes="#all"
-                version="2.0">
+                version="3.0">
 
   <xsl:import href="xstructural-links.xsl"/>
   <xsl:import href="xstructural-outputs.xsl"/>
@@ -398,24 +399,19 @@
                   as="element()"
                   select="ancestor::*:Document"/>
 
-    <xsl:variable name="sectionsPreceding"
-                  as="element()*"
-                  select="$documentOwning//*:Section[. &lt;&lt; current()]"/>
-    <xsl:variable name="sectionsFollowing"
-                  as="element()*"
-                  select="$documentOwning//*:Section[. &gt;&gt; current()]"/>
     <xsl:variable name="sectionUpNode"
                   as="element()?"
                   select="parent::*:Section"/>
-    <xsl:variable name="sectionsPrecedingUp"
-                  as="element()*"
-                  select="$documentOwning//*:Section[. &lt;&lt; $sectionUpNode]"/>
+
+    <xsl:variable name="sectionPrevNode"
+                  as="element()?"
+                  select="xsx:sectionPreviousOf(.)"/>
 
     <xsl:variable name="sectionPrev"
                   as="element()">
       <xsl:choose>
-        <xsl:when test="count($sectionsPreceding) > 0">
-          <xsl:sequence select="$sectionsPreceding[last()]"/>
+        <xsl:when test="$sectionPrevNode">
+          <xsl:sequence select="$sectionPrevNode"/>
         </xsl:when>
         <xsl:otherwise>
           <xsl:sequence select="$documentOwning"/>
@@ -423,11 +419,15 @@
       </xsl:choose>
     </xsl:variable>
 
+    <xsl:variable name="sectionNextNode"
+                  as="element()?"
+                  select="xsx:sectionNextOf(.)"/>
+
     <xsl:variable name="sectionNext"
                   as="element()">
       <xsl:choose>
-        <xsl:when test="count($sectionsFollowing) > 0">
-          <xsl:sequence select="$sectionsFollowing[1]"/>
+        <xsl:when test="$sectionNextNode">
+          <xsl:sequence select="$sectionNextNode"/>
         </xsl:when>
         <xsl:otherwise>
           <xsl:sequence select="$documentOwning"/>
@@ -566,24 +566,19 @@
                   as="element()"
                   select="ancestor::*:Document"/>
 
-    <xsl:variable name="sectionsPreceding"
-                  as="element()*"
-                  select="$documentOwning//*:Section[. &lt;&lt; current()]"/>
-    <xsl:variable name="sectionsFollowing"
-                  as="element()*"
-                  select="$documentOwning//*:Section[. &gt;&gt; current()]"/>
     <xsl:variable name="sectionUpNode"
                   as="element()?"
                   select="parent::*:Section"/>
-    <xsl:variable name="sectionsPrecedingUp"
-                  as="element()*"
-                  select="$documentOwning//*:Section[. &lt;&lt; $sectionUpNode]"/>
+
+    <xsl:variable name="sectionPrevNode"
+                  as="element()?"
+                  select="xsx:sectionPreviousOf(.)"/>
 
     <xsl:variable name="sectionPrev"
                   as="element()">
       <xsl:choose>
-        <xsl:when test="count($sectionsPreceding) > 0">
-          <xsl:sequence select="$sectionsPreceding[last()]"/>
+        <xsl:when test="$sectionPrevNode">
+          <xsl:sequence select="$sectionPrevNode"/>
         </xsl:when>
         <xsl:otherwise>
           <xsl:sequence select="$documentOwning"/>
@@ -591,11 +586,15 @@
       </xsl:choose>
     </xsl:variable>
 
+    <xsl:variable name="sectionNextNode"
+                  as="element()?"
+                  select="xsx:sectionNextOf(.)"/>
+
     <xsl:variable name="sectionNext"
                   as="element()">
       <xsl:choose>
-        <xsl:when test="count($sectionsFollowing) > 0">
-          <xsl:sequence select="$sectionsFollowing[1]"/>
+        <xsl:when test="$sectionNextNode">
+          <xsl:sequence select="$sectionNextNode"/>
         </xsl:when>
         <xsl:otherwise>
           <xsl:sequence select="$documentOwning"/>
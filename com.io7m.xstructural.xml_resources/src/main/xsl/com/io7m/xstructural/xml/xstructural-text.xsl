@@ -22,9 +22,10 @@
                 xmlns:xsc="urn:com.io7m.xstructural.case"
                 xmlns:dc="http://purl.org/dc/elements/1.1/"
                 xmlns:s="urn:com.io7m.structural:8:0"
+                xmlns:xsx="urn:com.io7m.xstructural.index"
                 xmlns="http://www.w3.org/1999/xhtml"
                 exclude-result-prefixes="#all"
-                version="2.0">
+                version="3.0">
 
   <xdoc:doc>
     Generate text that is to be used as the 'title' attribute of an XHTML 'a' element. This typically yields text that
@@ -38,9 +39,10 @@
 
     <xsl:variable name="number"
                   as="xsd:string">
-      <xsl:number level="multiple"
-                  select="$node"
-                  count="*:Section|*:Subsection|*:Paragraph|*:FormalItem"/>
+      <xsl:call-template name="xstructural.numbers.itemNumberTitleOf">
+        <xsl:with-param name="node"
+                        select="$node"/>
+      </xsl:call-template>
     </xsl:variable>
 
     <xsl:variable name="type"
@@ -226,9 +228,7 @@
     <xsl:param name="section"
                as="element()"
                required="yes"/>
-    <xsl:number level="multiple"
-                select="$section"
-                count="*:Section"/>
+    <xsl:value-of select="xsx:numberOf($section, 'section')"/>
   </xsl:template>
 
   <xdoc:doc>
@@ -242,33 +242,7 @@
     <xsl:param name="subsection"
                as="element()"
                required="yes"/>
-
-    <xsl:variable name="sectionNumber"
-                  as="xsd:string">
-      <xsl:choose>
-        <xsl:when test="count(ancestor::*:Section) > 0">
-          <xsl:variable name="numericPart">
-            <xsl:call-template name="xstructural.numbers.sectionNumberTitleOf">
-              <xsl:with-param name="section"
-                              select="ancestor::*:Section[1]"/>
-            </xsl:call-template>
-          </xsl:variable>
-          <xsl:value-of select="concat($numericPart,'.')"/>
-        </xsl:when>
-        <xsl:otherwise>
-          <xsl:value-of select="''"/>
-        </xsl:otherwise>
-      </xsl:choose>
-    </xsl:variable>
-
-    <xsl:variable name="subsectionNumber"
-                  as="xsd:string">
-      <xsl:number level="multiple"
-                  select="$subsection"
-                  count="*:Subsection"/>
-    </xsl:variable>
-
-    <xsl:value-of select="concat($sectionNumber,$subsectionNumber)"/>
+    <xsl:value-of select="xsx:numberOf($subsection, 'subsection')"/>
   </xsl:template>
 
   <xdoc:doc>
@@ -282,9 +256,23 @@
     <xsl:param name="formalItem"
                as="element()"
                required="yes"/>
-    <xsl:number select="$formalItem"
-                level="multiple"
-                count="*:Section|*:Subsection|*:Paragraph|*:FormalItem"/>
+    <xsl:call-template name="xstructural.numbers.itemNumberTitleOf">
+      <xsl:with-param name="node"
+                      select="$formalItem"/>
+    </xsl:call-template>
+  </xsl:template>
+
+  <xdoc:doc>
+    Generate text to be used as the number of a given section, subsection, paragraph, or formal item when all four
+    are numbered together. This is the numbering used by formal items and by anchor titles.
+  </xdoc:doc>
+
+  <xsl:template name="xstructural.numbers.itemNumberTitleOf"
+                as="xsd:string">
+    <xsl:param name="node"
+               as="element()"
+               required="yes"/>
+    <xsl:value-of select="xsx:numberOf($node, 'item')"/>
   </xsl:template>
 
   <xdoc:doc>
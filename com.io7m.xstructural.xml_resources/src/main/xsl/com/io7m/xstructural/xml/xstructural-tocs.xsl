@@ -18,146 +18,123 @@
 
 <xsl:stylesheet xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
                 xmlns:xsd="http://www.w3.org/2001/XMLSchema"
+                xmlns:xdoc="http://www.pnp-software.com/XSLTdoc"
+                xmlns:xst="urn:com.io7m.xstructural.tableOfContents"
                 xmlns="http://www.w3.org/1999/xhtml"
                 exclude-result-prefixes="#all"
-                version="2.0">
+                version="3.0">
 
   <xsl:import href="xstructural-links.xsl"/>
   <xsl:import href="xstructural-text.xsl"/>
 
-  <xsl:template match="*:Subsection"
-                mode="xstructural.tableOfContents">
-
-    <xsl:param name="depthMaximum"
-               as="xsd:integer"/>
-    <xsl:param name="depthCurrent"
-               as="xsd:integer"/>
+  <xdoc:doc>
+    The table of contents of the entire document, built once. The tree contains an Entry element for the document and
+    for every section and subsection, nested in the same way as the elements themselves. The Link element of each
+    entry holds the finished link to the corresponding element, with its number, anchor, and title already resolved.
+    Tables of contents for individual pages select the entry for the page and copy links from its descendants, rather
+    than resolving the links again for every page.
+  </xdoc:doc>
+
+  <xsl:variable name="xstructural.tableOfContents.tree"
+                as="document-node()">
+    <xsl:document>
+      <xsl:apply-templates select="/*"
+                           mode="xstructural.tableOfContents.tree"/>
+    </xsl:document>
+  </xsl:variable>
+
+  <xsl:key name="xstructural.tableOfContents.entryKey"
+           match="xst:Entry"
+           use="@node"/>
+
+  <xsl:template match="*"
+                mode="xstructural.tableOfContents.tree">
+    <xst:Entry node="{generate-id(.)}">
+      <xsl:apply-templates select="*:Section|*:Subsection"
+                           mode="xstructural.tableOfContents.tree"/>
+    </xst:Entry>
+  </xsl:template>
 
-    <xsl:choose>
-      <xsl:when test="$depthCurrent &lt;= $depthMaximum">
-        <xsl:element name="li">
-          <xsl:variable name="numberTitle">
-            <xsl:call-template name="xstructural.numbers.subsectionNumberTitleOf">
-              <xsl:with-param name="subsection"
+  <xsl:template match="*:Section|*:Subsection"
+                mode="xstructural.tableOfContents.tree">
+    <xst:Entry node="{generate-id(.)}">
+      <xst:Link>
+        <xsl:element name="a">
+          <xsl:attribute name="href">
+            <xsl:call-template name="xstructural.links.anchorOf">
+              <xsl:with-param name="target"
                               select="."/>
             </xsl:call-template>
-          </xsl:variable>
-
-          <xsl:element name="a">
-            <xsl:attribute name="href">
-              <xsl:call-template name="xstructural.links.anchorOf">
-                <xsl:with-param name="target"
-                                select="."/>
-              </xsl:call-template>
-            </xsl:attribute>
-            <xsl:attribute name="title">
-              <xsl:call-template name="xstructural.titles.anchorTitleFor">
-                <xsl:with-param name="node"
-                                select="."/>
-              </xsl:call-template>
-            </xsl:attribute>
-            <xsl:value-of select="concat($numberTitle,'. ',attribute::title)"/>
-          </xsl:element>
-
-          <xsl:variable name="depthNext"
-                        as="xsd:integer"
-                        select="$depthCurrent + 1"/>
-          <xsl:variable name="haveSections"
-                        select="count(*:Section) > 0"
-                        as="xsd:boolean"/>
-          <xsl:variable name="haveSubsections"
-                        select="count(*:Subsection) > 0"
-                        as="xsd:boolean"/>
-          <xsl:variable name="haveElements"
-                        select="$haveSections or $haveSubsections"
-                        as="xsd:boolean"/>
-          <xsl:variable name="haveDepth"
-                        select="$depthNext &lt; $depthMaximum"
-                        as="xsd:boolean"/>
-          <xsl:variable name="shouldCreateSubList"
-                        select="$haveDepth and $haveElements"/>
-
-          <xsl:if test="$shouldCreateSubList">
-            <ul>
-              <xsl:apply-templates select="*:Section|*:Subsection"
-                                   mode="xstructural.tableOfContents">
-                <xsl:with-param name="depthMaximum"
-                                select="$depthMaximum"/>
-                <xsl:with-param name="depthCurrent"
-                                select="$depthCurrent + 1"/>
-              </xsl:apply-templates>
-            </ul>
-          </xsl:if>
+          </xsl:attribute>
+          <xsl:attribute name="title">
+            <xsl:call-template name="xstructural.titles.anchorTitleFor">
+              <xsl:with-param name="node"
+                              select="."/>
+            </xsl:call-template>
+          </xsl:attribute>
+          <xsl:apply-templates select="."
+                               mode="xstructural.titleText"/>
         </xsl:element>
-      </xsl:when>
-    </xsl:choose>
+      </xst:Link>
+      <xsl:apply-templates select="*:Section|*:Subsection"
+                           mode="xstructural.tableOfContents.tree"/>
+    </xst:Entry>
+  </xsl:template>
+
+  <xdoc:doc>
+    Generate the items of the table of contents for the given document or section, down to the given depth.
+  </xdoc:doc>
+
+  <xsl:template name="xstructural.tableOfContents.itemsOf">
+    <xsl:param name="node"
+               as="element()"
+               required="yes"/>
+    <xsl:param name="depthMaximum"
+               as="xsd:integer"
+               required="yes"/>
+
+    <xsl:variable name="entry"
+                  as="element()"
+                  select="key('xstructural.tableOfContents.entryKey', generate-id($node), $xstructural.tableOfContents.tree)"/>
+
+    <xsl:apply-templates select="$entry/xst:Entry"
+                         mode="xstructural.tableOfContents">
+      <xsl:with-param name="depthMaximum"
+                      select="$depthMaximum"/>
+      <xsl:with-param name="depthCurrent"
+                      select="0"/>
+    </xsl:apply-templates>
   </xsl:template>
 
-  <xsl:template match="*:Section"
+  <xsl:template match="xst:Entry"
                 mode="xstructural.tableOfContents">
     <xsl:param name="depthMaximum"
                as="xsd:integer"/>
     <xsl:param name="depthCurrent"
                as="xsd:integer"/>
 
-    <xsl:choose>
-      <xsl:when test="$depthCurrent &lt;= $depthMaximum">
-        <xsl:element name="li">
-          <xsl:variable name="numberTitle">
-            <xsl:call-template name="xstructural.numbers.sectionNumberTitleOf">
-              <xsl:with-param name="section"
-                              select="."/>
-            </xsl:call-template>
-          </xsl:variable>
-
-          <xsl:element name="a">
-            <xsl:attribute name="href">
-              <xsl:call-template name="xstructural.links.anchorOf">
-                <xsl:with-param name="target"
-                                select="."/>
-              </xsl:call-template>
-            </xsl:attribute>
-            <xsl:attribute name="title">
-              <xsl:call-template name="xstructural.titles.anchorTitleFor">
-                <xsl:with-param name="node"
-                                select="."/>
-              </xsl:call-template>
-            </xsl:attribute>
-            <xsl:value-of select="concat($numberTitle,'. ',attribute::title)"/>
-          </xsl:element>
-
-          <xsl:variable name="depthNext"
-                        as="xsd:integer"
-                        select="$depthCurrent + 1"/>
-          <xsl:variable name="haveSections"
-                        select="count(*:Section) > 0"
-                        as="xsd:boolean"/>
-          <xsl:variable name="haveSubsections"
-                        select="count(*:Subsection) > 0"
-                        as="xsd:boolean"/>
-          <xsl:variable name="haveElements"
-                        select="$haveSections or $haveSubsections"
-                        as="xsd:boolean"/>
-          <xsl:variable name="haveDepth"
-                        select="$depthNext &lt; $depthMaximum"
-                        as="xsd:boolean"/>
-          <xsl:variable name="shouldCreateSubList"
-                        select="$haveDepth and $haveElements"/>
-
-          <xsl:if test="$shouldCreateSubList">
-            <ul>
-              <xsl:apply-templates select="*:Section|*:Subsection"
-                                   mode="xstructural.tableOfContents">
-                <xsl:with-param name="depthMaximum"
-                                select="$depthMaximum"/>
-                <xsl:with-param name="depthCurrent"
-                                select="$depthCurrent + 1"/>
-              </xsl:apply-templates>
-            </ul>
-          </xsl:if>
-        </xsl:element>
-      </xsl:when>
-    </xsl:choose>
+    <xsl:if test="$depthCurrent &lt;= $depthMaximum">
+      <li>
+        <xsl:copy-of select="xst:Link/node()"
+                     copy-namespaces="no"/>
+
+        <xsl:variable name="shouldCreateSubList"
+                      as="xsd:boolean"
+                      select="$depthCurrent + 1 &lt; $depthMaximum and exists(xst:Entry)"/>
+
+        <xsl:if test="$shouldCreateSubList">
+          <ul>
+            <xsl:apply-templates select="xst:Entry"
+                                 mode="xstructural.tableOfContents">
+              <xsl:with-param name="depthMaximum"
+                              select="$depthMaximum"/>
+              <xsl:with-param name="depthCurrent"
+                              select="$depthCurrent + 1"/>
+            </xsl:apply-templates>
+          </ul>
+        </xsl:if>
+      </li>
+    </xsl:if>
   </xsl:template>
 
   <xsl:template match="@*|node()"
@@ -198,13 +175,12 @@
           </xsl:if>
 
           <ul>
-            <xsl:apply-templates select="*:Section|*:Subsection"
-                                 mode="xstructural.tableOfContents">
-              <xsl:with-param name="depthCurrent"
-                              select="0"/>
+            <xsl:call-template name="xstructural.tableOfContents.itemsOf">
+              <xsl:with-param name="node"
+                              select="."/>
               <xsl:with-param name="depthMaximum"
                               select="$maximumDepth"/>
-            </xsl:apply-templates>
+            </xsl:call-template>
           </ul>
         </div>
         <xsl:text>&#x000a;</xsl:text>
@@ -43,26 +43,6 @@
   <!-- Top-level web multi templates. -->
   <!--                                -->
 
-  <xsl:template name="xstructural.fileOf"
-                as="xsd:string">
-    <xsl:param name="target"
-               as="element()"/>
-
-    <xsl:variable name="targetOwner"
-                  as="element()">
-      <xsl:choose>
-        <xsl:when test="count($target/ancestor-or-self::*:Section) > 0">
-          <xsl:sequence select="$target/ancestor-or-self::*:Section[1]"/>
-        </xsl:when>
-        <xsl:when test="count($target/ancestor-or-self::*:Document) > 0">
-          <xsl:sequence select="$target/ancestor-or-self::*:Document[1]"/>
-        </xsl:when>
-      </xsl:choose>
-    </xsl:variable>
-
-    <xsl:value-of select="concat(generate-id($targetOwner), '.xhtml')"/>
-  </xsl:template>
-
   <xdoc:doc>
     An override of the anchorOf function that works for multi-page XHTML files.
   </xdoc:doc>
@@ -72,36 +52,29 @@
     <xsl:param name="target"
                as="element()"/>
 
-    <xsl:message select="concat('anchorOf: ', local-name($target))"/>
+    <xsl:variable name="owner"
+                  as="element()">
+      <xsl:call-template name="xstructural.links.ownerOf">
+        <xsl:with-param name="target"
+                        select="$target"/>
+      </xsl:call-template>
+    </xsl:variable>
 
     <xsl:variable name="owningFile"
-                  as="xsd:string">
-      <xsl:choose>
-        <xsl:when test="$target/ancestor-or-self::*:Section[1]">
-          <xsl:variable name="owningSection"
-                        as="element()">
-            <xsl:sequence select="$target/ancestor-or-self::*:Section[1]"/>
-          </xsl:variable>
-          <xsl:value-of select="concat(generate-id($owningSection),'.xhtml')"/>
-        </xsl:when>
-        <xsl:otherwise>
-          <xsl:value-of select="$xstructural.web.indexMulti"/>
-        </xsl:otherwise>
-      </xsl:choose>
-    </xsl:variable>
+                  as="xsd:string"
+                  select="if ($owner/self::*:Section)
+                          then concat(generate-id($owner),'.xhtml')
+                          else $xstructural.web.indexMulti"/>
 
-    <xsl:variable name="completeHref">
-      <xsl:choose>
-        <xsl:when test="$target/attribute::id">
-          <xsl:value-of select="concat($owningFile,'#id_',$target/attribute::id[1])"/>
-        </xsl:when>
-        <xsl:otherwise>
-          <xsl:value-of select="concat($owningFile,'#',generate-id($target))"/>
-        </xsl:otherwise>
-      </xsl:choose>
+    <xsl:variable name="fragment"
+                  as="xsd:string">
+      <xsl:call-template name="xstructural.links.fragmentOf">
+        <xsl:with-param name="target"
+                        select="$target"/>
+      </xsl:call-template>
     </xsl:variable>
 
-    <xsl:value-of select="$completeHref"/>
+    <xsl:value-of select="concat($owningFile,$fragment)"/>
   </xsl:template>
 
   <xsl:template match="*:Document">
@@ -51,18 +51,10 @@
     <xsl:param name="target"
                as="element()"/>
 
-    <xsl:variable name="completeHref">
-      <xsl:choose>
-        <xsl:when test="$target/attribute::id">
-          <xsl:value-of select="concat('#id_',$target/attribute::id[1])"/>
-        </xsl:when>
-        <xsl:otherwise>
-          <xsl:value-of select="concat('#',generate-id($target))"/>
-        </xsl:otherwise>
-      </xsl:choose>
-    </xsl:variable>
-
-    <xsl:value-of select="$completeHref"/>
+    <xsl:call-template name="xstructural.links.fragmentOf">
+      <xsl:with-param name="target"
+                      select="$target"/>
+    </xsl:call-template>
   </xsl:template>
 
   <xsl:template match="*:Document">